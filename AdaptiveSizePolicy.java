@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+// ergonomics for the generational collectors, after HotSpot's adaptive size policy: every minor collection
+// picks the tenuring threshold from the survivors' age table and resizes the young generation from the
+// observed pauses, the share of time spent collecting and how much of it the survivors fill; every full
+// collection resizes the old generation to keep a share of it free. No generation shrinks below its
+// initial size or grows beyond its maximum
+public class AdaptiveSizePolicy {
+    public static final int DEFAULT_PAUSE_GOAL_MILLIS = 200;
+    // maximum generation sizes default to this multiple of the initial ones
+    public static final int DEFAULT_MAX_SIZE_RATIO = 4;
+    // survivors may fill this share of the space they live in before objects are tenured earlier (TargetSurvivorRatio)
+    private static final double TARGET_SURVIVOR_RATIO = 0.5;
+    // at most 1 / (1 + GC_TIME_RATIO) of the time should go to minor collections (GCTimeRatio)
+    private static final int GC_TIME_RATIO = 99;
+    // share of the old generation a full collection should leave free (MinHeapFreeRatio, MaxHeapFreeRatio)
+    private static final double MIN_FREE_RATIO = 0.4;
+    private static final double MAX_FREE_RATIO = 0.7;
+    // the young generation grows in steps of 20% and shrinks in steps of a quarter of that
+    private static final double GROW_STEP = 0.2;
+    private static final double SHRINK_STEP = GROW_STEP / 4;
+    // weight of the newest sample in the running averages (AdaptiveSizePolicyWeight)
+    private static final double WEIGHT = 0.1;
+
+    private final int minYoungSize;
+    private final int maxYoungSize;
+    private final int minOldSize;
+    private final int maxOldSize;
+    private final int maxTenuringThreshold;
+    private final long pauseGoalNanos;
+    // survivors of the current collection by age, the last entry also counting every older one
+    private final int[] ageTable;
+    private int tenuringThreshold;
+    private double averagePauseNanos = 0;
+    private double averageIntervalNanos = 0;
+    private long lastCollectionEnd = -1;
+
+    public AdaptiveSizePolicy(int youngSize, int maxYoungSize, int oldSize, int maxOldSize, int maxTenuringThreshold, int pauseGoalMillis) {
+        if (maxYoungSize < youngSize) {
+            throw new IllegalArgumentException("maxYoungSize must be >= youngSize (" + youngSize + ", got " + maxYoungSize + ")");
+        }
+        if (maxOldSize < oldSize) {
+            throw new IllegalArgumentException("maxOldSize must be >= oldSize (" + oldSize + ", got " + maxOldSize + ")");
+        }
+        this.minYoungSize = youngSize;
+        this.maxYoungSize = maxYoungSize;
+        this.minOldSize = oldSize;
+        this.maxOldSize = maxOldSize;
+        this.maxTenuringThreshold = maxTenuringThreshold;
+        this.pauseGoalNanos = pauseGoalMillis * 1_000_000L;
+        this.ageTable = new int[maxTenuringThreshold + 2];
+        this.tenuringThreshold = maxTenuringThreshold;
+    }
+
+    // a policy that never resizes the generations and only tunes the tenuring threshold
+    public static AdaptiveSizePolicy fixedSize(int youngSize, int oldSize, int maxTenuringThreshold) {
+        return new AdaptiveSizePolicy(youngSize, youngSize, oldSize, oldSize, maxTenuringThreshold, DEFAULT_PAUSE_GOAL_MILLIS);
+    }
+
+    public int tenuringThreshold() {
+        return tenuringThreshold;
+    }
+
+    public void recordSurvivor(int age) {
+        ageTable[Math.min(Math.max(age, 0), ageTable.length - 1)]++;
+    }
+
+    // HotSpot's AgeTable::compute_tenuring_threshold: the youngest age at which the survivors up to it
+    // would fill more than the target share of their space; older objects are promoted by the next collection
+    public int computeTenuringThreshold(int survivorCapacity) {
+        long desired = (long) (survivorCapacity * TARGET_SURVIVOR_RATIO);
+        long total = 0;
+        int age = 1;
+        while (age < ageTable.length) {
+            total += ageTable[age];
+            if (total > desired) break;
+            age++;
+        }
+        tenuringThreshold = Math.min(age, maxTenuringThreshold);
+        Arrays.fill(ageTable, 0);
+        return tenuringThreshold;
+    }
+
+    // the young generation size after a minor collection that started at startNanos and left survivors
+    // objects in it. Missing the pause goal shrinks it, spending too much time collecting or filling the
+    // space with survivors grows it, and collecting rarely enough lets it shrink back towards its initial size
+    public int youngCollectionEnd(long startNanos, int survivors, int capacity) {
+        long end = System.nanoTime();
+        averagePauseNanos = average(averagePauseNanos, end - startNanos);
+        if (lastCollectionEnd >= 0) averageIntervalNanos = average(averageIntervalNanos, startNanos - lastCollectionEnd);
+        lastCollectionEnd = end;
+        double goal = 1.0 / (1 + GC_TIME_RATIO);
+        // the first collection has no interval to compare its pause with yet
+        double gcTimeShare = averageIntervalNanos == 0 ? goal : averagePauseNanos / (averagePauseNanos + averageIntervalNanos);
+        int size = capacity;
+        if (averagePauseNanos > pauseGoalNanos) {
+            size = (int) (capacity * (1 - SHRINK_STEP));
+        } else if (gcTimeShare > goal || survivors > capacity * TARGET_SURVIVOR_RATIO) {
+            size = (int) Math.ceil(capacity * (1 + GROW_STEP));
+        } else if (gcTimeShare < goal / 2) {
+            size = (int) (capacity * (1 - SHRINK_STEP));
+        }
+        // what survived has to fit, with room for at least one more allocation
+        return clamp(size, Math.max(minYoungSize, survivors + 1), maxYoungSize);
+    }
+
+    // the old generation size after a full collection left live objects in it
+    public int oldCollectionEnd(int live, int capacity) {
+        int size = capacity;
+        if (capacity - live < capacity * MIN_FREE_RATIO) {
+            size = (int) Math.ceil(live / (1 - MIN_FREE_RATIO));
+        } else if (capacity - live > capacity * MAX_FREE_RATIO) {
+            size = (int) Math.ceil(live / (1 - MAX_FREE_RATIO));
+        }
+        return clamp(size, Math.max(minOldSize, live), maxOldSize);
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : (1 - WEIGHT) * average + WEIGHT * sample;
+    }
+
+    private static int clamp(int size, int min, int max) {
+        return Math.max(Math.min(size, max), Math.min(min, max));
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+// structure-of-arrays storage: no Java object per simulated object, and all edges packed into one int array
+public class ArrayHeapStorage implements HeapStorage {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MIN_EDGE_CAPACITY = 2;
+    private static final int LOCK_STRIPES = 64;
+
+    private int size = 0;
+    private int[] ages;
+    private int[] generations;
+    // freed slots, the one freed last on top
+    private int[] freeSlots = new int[0];
+    private int freeCount = 0;
+    // ids are split into a shared prefix and a numeric suffix, "Obj42" -> ("Obj", 42); -1 means no suffix.
+    // A free slot has no prefix, -1
+    private int[] idPrefixes;
+    private int[] idNumbers;
+    private final List<String> prefixes = new ArrayList<>();
+    private final Map<String, Integer> prefixIndex = new HashMap<>();
+
+    // CSR-style adjacency: the references of slot s are edges[edgeStart[s] .. edgeStart[s] + edgeCount[s]),
+    // with room to grow in place up to edgeCapacity[s]
+    private int[] edgeStart;
+    private int[] edgeCount;
+    private int[] edgeCapacity;
+    private int[] edges;
+    private int edgeTop = 0;
+    private int abandonedEdges = 0;
+
+    // concurrent mode: appends that fit in place only take the shared lock plus the slot's stripe,
+    // anything that moves or grows the arrays takes the exclusive lock
+    private final ReentrantReadWriteLock resizeLock;
+    private final Object[] stripes;
+    private WriteBarrier barrier = WriteBarrier.NONE;
+
+    public ArrayHeapStorage() {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    public ArrayHeapStorage(boolean concurrent) {
+        this(DEFAULT_CAPACITY, concurrent);
+    }
+
+    public ArrayHeapStorage(int initialCapacity, boolean concurrent) {
+        if (initialCapacity < 1) throw new IllegalArgumentException("initialCapacity must be >= 1 (got " + initialCapacity + ")");
+        if (concurrent) {
+            resizeLock = new ReentrantReadWriteLock();
+            stripes = new Object[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) stripes[i] = new Object();
+        } else {
+            resizeLock = null;
+            stripes = null;
+        }
+        ages = new int[initialCapacity];
+        generations = new int[initialCapacity];
+        idPrefixes = new int[initialCapacity];
+        idNumbers = new int[initialCapacity];
+        edgeStart = new int[initialCapacity];
+        edgeCount = new int[initialCapacity];
+        edgeCapacity = new int[initialCapacity];
+        edges = new int[initialCapacity * MIN_EDGE_CAPACITY];
+    }
+
+    public int allocate(String id) {
+        if (resizeLock == null) return append(id);
+        Lock exclusive = resizeLock.writeLock();
+        exclusive.lock();
+        try {
+            return append(id);
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    // a reused slot keeps its room for edges
+    private int append(String id) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : grow();
+        ages[slot] = 0;
+        edgeCount[slot] = 0;
+        int suffix = numericSuffix(id);
+        String prefix = suffix < 0 ? id : id.substring(0, id.length() - String.valueOf(suffix).length());
+        idPrefixes[slot] = prefixIndex.computeIfAbsent(prefix, p -> {
+            prefixes.add(p);
+            return prefixes.size() - 1;
+        });
+        idNumbers[slot] = suffix;
+        return slot;
+    }
+
+    private int grow() {
+        if (size == ages.length) {
+            int capacity = ages.length * 2;
+            ages = Arrays.copyOf(ages, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            idPrefixes = Arrays.copyOf(idPrefixes, capacity);
+            idNumbers = Arrays.copyOf(idNumbers, capacity);
+            edgeStart = Arrays.copyOf(edgeStart, capacity);
+            edgeCount = Arrays.copyOf(edgeCount, capacity);
+            edgeCapacity = Arrays.copyOf(edgeCapacity, capacity);
+        }
+        return size++;
+    }
+
+    public void free(int slot) {
+        if (resizeLock == null) {
+            release(slot);
+            return;
+        }
+        Lock exclusive = resizeLock.writeLock();
+        exclusive.lock();
+        try {
+            release(slot);
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    private void release(int slot) {
+        if (idPrefixes[slot] < 0) return;
+        idPrefixes[slot] = -1;
+        edgeCount[slot] = 0;
+        generations[slot]++;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount * 2));
+        freeSlots[freeCount++] = slot;
+    }
+
+    // only suffixes that print back to the same digits are split off, so "Obj007" keeps its zeros
+    private static int numericSuffix(String id) {
+        int start = id.length();
+        while (start > 0 && Character.isDigit(id.charAt(start - 1))) start--;
+        int digits = id.length() - start;
+        if (digits == 0 || digits > 9 || (digits > 1 && id.charAt(start) == '0')) return -1;
+        return Integer.parseInt(id.substring(start));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int generation(int slot) {
+        return generations[slot];
+    }
+
+    public String id(int slot) {
+        if (idPrefixes[slot] < 0) return null;
+        String prefix = prefixes.get(idPrefixes[slot]);
+        return idNumbers[slot] < 0 ? prefix : prefix + idNumbers[slot];
+    }
+
+    public int age(int slot) {
+        return ages[slot];
+    }
+
+    public void setAge(int slot, int age) {
+        ages[slot] = age;
+    }
+
+    public int referenceCount(int slot) {
+        return edgeCount[slot];
+    }
+
+    public int reference(int slot, int index) {
+        return edges[edgeStart[slot] + index];
+    }
+
+    public void addReference(int from, int to) {
+        storeReference(from, to);
+        barrier.referenceStored(from, to);
+    }
+
+    public void setWriteBarrier(WriteBarrier barrier) {
+        this.barrier = barrier;
+    }
+
+    public void removeReference(int from, int to) {
+        barrier.referenceRemoved(from, to);
+        retainReferences(from, ref -> ref != to);
+    }
+
+    private void storeReference(int from, int to) {
+        if (resizeLock == null) {
+            appendEdge(from, to);
+            return;
+        }
+        Lock shared = resizeLock.readLock();
+        shared.lock();
+        try {
+            synchronized (stripes[from & (LOCK_STRIPES - 1)]) {
+                int count = edgeCount[from];
+                if (count < edgeCapacity[from]) {
+                    edges[edgeStart[from] + count] = to;
+                    edgeCount[from] = count + 1;
+                    return;
+                }
+            }
+        } finally {
+            shared.unlock();
+        }
+        Lock exclusive = resizeLock.writeLock();
+        exclusive.lock();
+        try {
+            appendEdge(from, to);
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    private void appendEdge(int from, int to) {
+        int count = edgeCount[from];
+        if (count == edgeCapacity[from]) {
+            growEdges(from, Math.max(MIN_EDGE_CAPACITY, count * 2));
+        }
+        edges[edgeStart[from] + count] = to;
+        edgeCount[from] = count + 1;
+    }
+
+    public void retainReferences(int slot, IntPredicate keep) {
+        if (resizeLock == null) {
+            retainEdges(slot, keep);
+            return;
+        }
+        Lock shared = resizeLock.readLock();
+        shared.lock();
+        try {
+            synchronized (stripes[slot & (LOCK_STRIPES - 1)]) {
+                retainEdges(slot, keep);
+            }
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    private void retainEdges(int slot, IntPredicate keep) {
+        int start = edgeStart[slot];
+        int kept = 0;
+        for (int i = 0; i < edgeCount[slot]; i++) {
+            int ref = edges[start + i];
+            if (keep.test(ref)) edges[start + kept++] = ref;
+        }
+        edgeCount[slot] = kept;
+    }
+
+    // moves the edge list of slot to the end of the edge array; the old range is abandoned until the next repack
+    private void growEdges(int slot, int capacity) {
+        int start = edgeStart[slot];
+        int oldCapacity = edgeCapacity[slot];
+        if (oldCapacity > 0 && start + oldCapacity == edgeTop) {
+            ensureEdgeRoom(capacity - oldCapacity);
+            edgeTop += capacity - oldCapacity;
+            edgeCapacity[slot] = capacity;
+            return;
+        }
+        if (abandonedEdges > edgeTop / 2) {
+            repackEdges();
+            start = edgeStart[slot];
+        }
+        ensureEdgeRoom(capacity);
+        System.arraycopy(edges, start, edges, edgeTop, edgeCount[slot]);
+        abandonedEdges += oldCapacity;
+        edgeStart[slot] = edgeTop;
+        edgeCapacity[slot] = capacity;
+        edgeTop += capacity;
+    }
+
+    private void ensureEdgeRoom(int extra) {
+        if (edgeTop + extra > edges.length) {
+            edges = Arrays.copyOf(edges, Math.max(edges.length * 2, edgeTop + extra));
+        }
+    }
+
+    private void repackEdges() {
+        int[] packed = new int[Math.max(edges.length, MIN_EDGE_CAPACITY)];
+        int top = 0;
+        for (int slot = 0; slot < size; slot++) {
+            System.arraycopy(edges, edgeStart[slot], packed, top, edgeCount[slot]);
+            edgeStart[slot] = top;
+            top += edgeCapacity[slot];
+        }
+        edges = packed;
+        edgeTop = top;
+        abandonedEdges = 0;
+    }
+}
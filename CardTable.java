@@ -0,0 +1,55 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// one byte per card of 2^CARD_SHIFT consecutive slots; the write barrier dirties the card of an old object
+// that was given a reference to a young one, and a minor collection only looks at the dirty cards
+public class CardTable {
+    public static final int CARD_SHIFT = 6;
+    private static final byte CLEAN = 0;
+    private static final byte DIRTY = 1;
+
+    // a plain store is enough: dirtying is idempotent and the safepoint handshake publishes it to the collector
+    private byte[] cards;
+
+    public CardTable(int slots) {
+        cards = new byte[cardsFor(slots)];
+    }
+
+    private static int cardsFor(int slots) {
+        return Math.max(1, (slots + (1 << CARD_SHIFT) - 1) >>> CARD_SHIFT);
+    }
+
+    // only called while no collection is running, like HeapBitmap.ensureCapacity
+    public void ensureCapacity(int slots) {
+        int needed = cardsFor(slots);
+        if (needed > cards.length) {
+            cards = Arrays.copyOf(cards, Math.max(needed, cards.length * 2));
+        }
+    }
+
+    public void dirty(int slot) {
+        cards[slot >>> CARD_SHIFT] = DIRTY;
+    }
+
+    public int dirtyCards() {
+        int dirty = 0;
+        for (byte card : cards) {
+            if (card == DIRTY) dirty++;
+        }
+        return dirty;
+    }
+
+    // visits every slot below limit on a dirty card; a card stays dirty only if visit returned true for one of its slots.
+    // The table may have grown past limit, and the cards beyond it hold no slot yet
+    public void processDirtyCards(int limit, IntPredicate visit) {
+        for (int card = 0, last = Math.min(cards.length, cardsFor(limit)); card < last; card++) {
+            if (cards[card] != DIRTY) continue;
+            boolean keep = false;
+            int end = Math.min(limit, (card + 1) << CARD_SHIFT);
+            for (int slot = card << CARD_SHIFT; slot < end; slot++) {
+                if (visit.test(slot)) keep = true;
+            }
+            if (!keep) cards[card] = CLEAN;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+import java.util.*;
+
+// generational collector with a copying young generation: objects are allocated in eden, and a minor
+// collection evacuates whatever is still reachable from eden and the from-survivor space into the
+// to-survivor space, breadth first like Cheney's algorithm. Dead objects are never visited, so a minor
+// collection costs as much as the young survivors, however fast the mutators allocate. An object ages once
+// per collection it survives and is promoted once it reaches the tenuring threshold, which an adaptive size
+// policy picks from the survivors' ages up to promotionThreshold. The old generation is marked, swept and
+// compacted like the serial collector's
+public class CopyingGarbageCollector implements GarbageCollector {
+    public static final int DEFAULT_SURVIVOR_RATIO = 8;
+
+    private final GCObject[] eden;
+    // the survivor spaces swap roles after every young collection
+    private GCObject[] fromSpace;
+    private GCObject[] toSpace;
+    private final GCObject[] oldHeap;
+    private int edenPointer = 0;
+    private int fromPointer = 0;
+    private int toPointer = 0;
+    private int oldPointer = 0;
+    private SplittableRandom random = new SplittableRandom();
+    // only picks the tenuring threshold; the spaces keep their size
+    private final AdaptiveSizePolicy sizePolicy;
+    private final HeapBitmap liveBits;
+    // young objects are marked when they are copied, so a set mark also means "already evacuated"
+    private final HeapBitmap markBits;
+    private final HeapBitmap oldBits;
+    private final CardTable cardTable;
+    // the mark bit value that means "marked" in each generation, flipped after the generation is collected
+    private boolean youngMark = true;
+    private boolean oldMark = true;
+    // set by a full collection, whose marks also tell which young objects survive
+    private boolean youngMarked = false;
+    private int promotedCount = 0;
+    // survivors that found no room anywhere during the current collection; they stay in eden
+    private final List<GCObject> stayed = new ArrayList<>();
+    // young objects a full marking reached before random deletion took them. Objects it scanned may still
+    // reference them, so they are only freed after the next evacuation or marking drops those references
+    private final ReferenceList reachedVictims = new ReferenceList();
+    private final HeapStorage storage;
+    private final List<GCObject> rootObjects = new ArrayList<>();
+    private final MarkStack markStack = new MarkStack();
+    private final Safepoint safepoint = new Safepoint();
+    private final GcMetrics metrics;
+    private boolean randomDeletion = true;
+
+    public CopyingGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold) {
+        this(youngSize, oldSize, rootObjectsQuantity, promotionThreshold, DEFAULT_SURVIVOR_RATIO, new ObjectHeapStorage());
+    }
+
+    // eden is survivorRatio times the size of each survivor space, as with HotSpot's -XX:SurvivorRatio
+    public CopyingGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold,
+                                   int survivorRatio, HeapStorage storage) {
+        this.storage = storage;
+        int survivorSize = Math.max(1, youngSize / (survivorRatio + 2));
+        eden = new GCObject[Math.max(1, youngSize - 2 * survivorSize)];
+        fromSpace = new GCObject[survivorSize];
+        toSpace = new GCObject[survivorSize];
+        oldHeap = new GCObject[oldSize];
+        liveBits = new HeapBitmap(youngSize + oldSize);
+        markBits = new HeapBitmap(youngSize + oldSize);
+        oldBits = new HeapBitmap(youngSize + oldSize);
+        cardTable = new CardTable(liveBits.capacity());
+        storage.setWriteBarrier(this::referenceStored);
+        this.sizePolicy = AdaptiveSizePolicy.fixedSize(youngSize, oldSize, promotionThreshold);
+        // one survivor space is always empty, so it does not count towards the young capacity
+        metrics = new GcMetrics(eden.length + survivorSize, oldSize);
+        setRootObjects(rootObjectsQuantity);
+    }
+
+    public SplittableRandom getRandom() {
+        return this.random;
+    }
+
+    public synchronized void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    public void setRootObjects(int rootObjectsQuantity) {
+        for (int i = 0; i < rootObjectsQuantity; i++) {
+            GCObject gcObject = new GCObject("Root");
+            this.allocateYoung(gcObject);
+            rootObjects.add(gcObject);
+        }
+    }
+
+    private void assignSlot(GCObject object) {
+        if (object.storage == storage) return;
+        if (object.storage != null) {
+            throw new IllegalArgumentException(object.id() + " was already allocated by another collector");
+        }
+        object.bind(storage);
+        liveBits.ensureCapacity(storage.size());
+        markBits.ensureCapacity(storage.size());
+        oldBits.ensureCapacity(storage.size());
+        cardTable.ensureCapacity(liveBits.capacity());
+        liveBits.set(object.slot);
+        oldBits.clear(object.slot);
+    }
+
+    // post-write barrier: remembers old objects that now reference a young one
+    private void referenceStored(int from, int to) {
+        if (oldBits.get(from) && !oldBits.get(to)) cardTable.dirty(from);
+    }
+
+    public HeapStorage storage() {
+        return storage;
+    }
+
+    private int youngOccupancy() {
+        return edenPointer + fromPointer;
+    }
+
+    // as in the serial collector, every mutator entry point holds the collector monitor
+    public synchronized void allocateYoung(GCObject object) {
+        GcLog.debug(() -> "Allocating in Eden: " + object.id());
+        assignSlot(object);
+        GcLog.trace(() -> "Print Heap before allocation: \n" + describeHeap());
+        if (edenPointer == eden.length) {
+            metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+            minorGC();
+        }
+        if (edenPointer == eden.length) {
+            throw new IllegalStateException("Heap exhausted: eden is still full of survivors, cannot allocate " + object.id());
+        }
+        randomReference(object);
+        markBits.put(object.slot, !youngMark);
+        eden[edenPointer++] = object;
+        GcLog.trace(() -> "Print Heap After allocation: \n" + describeHeap());
+    }
+
+    public synchronized void allocateOld(GCObject object) {
+        GcLog.debug(() -> "Allocating in Old Heap: " + object.id());
+        assignSlot(object);
+        if (oldPointer == oldHeap.length) {
+            metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+            fullGC();
+            if (!liveBits.get(object.slot)) {
+                GcLog.info("Object was deleted during full GC, skipping allocation");
+                return;
+            }
+            if (oldPointer == oldHeap.length) {
+                throw new IllegalStateException("Heap exhausted: the old generation is still full after a full GC, cannot allocate " + object.id());
+            }
+        }
+        placeOld(object);
+        GcLog.debug(() -> "Allocated Old: " + object + "\nOld Pointer: " + oldPointer);
+    }
+
+    private void placeOld(GCObject object) {
+        oldBits.set(object.slot);
+        markBits.put(object.slot, !oldMark);
+        // a promoted object may still reference young objects
+        if (storage.referenceCount(object.slot) > 0) cardTable.dirty(object.slot);
+        oldHeap[oldPointer++] = object;
+    }
+
+    public void randomReference(GCObject newObject) {
+        if (newObject.id().equals("Root")) {
+            return;
+        }
+        int objects = edenPointer + fromPointer + oldPointer;
+        if (objects == 0) return;
+        // the spaces are always compact, so any index below the pointers holds an object
+        int randomIndex = this.getRandom().nextInt(objects);
+        GCObject target;
+        if (randomIndex < edenPointer) {
+            target = eden[randomIndex];
+        } else if (randomIndex < edenPointer + fromPointer) {
+            target = fromSpace[randomIndex - edenPointer];
+        } else {
+            target = oldHeap[randomIndex - edenPointer - fromPointer];
+        }
+        target.addReference(newObject);
+        GcLog.debug(() -> "Added Ref " + newObject.id() + " as reference to " + target.id());
+    }
+
+    public synchronized void addReference(GCObject from, GCObject to) {
+        from.addReference(to);
+    }
+
+    public synchronized void removeReference(GCObject from, GCObject to) {
+        from.removeReference(to);
+    }
+
+    public synchronized void release(GCObject object) {
+        if (object.isReclaimed()) return;
+        GcLog.debug(() -> "Released: " + object.id());
+        liveBits.clear(object.slot);
+    }
+
+    public void setRandomDeletion(boolean enabled) {
+        this.randomDeletion = enabled;
+    }
+
+    public List<GCObject> rootObjects() {
+        return Collections.unmodifiableList(rootObjects);
+    }
+
+    public Safepoint safepoint() {
+        return safepoint;
+    }
+
+    public GcMetrics metrics() {
+        return metrics;
+    }
+
+    public void mark(GCObject obj) {
+        markFrom(obj, markStack);
+    }
+
+    public boolean isLive(int slot) {
+        return liveBits.get(slot);
+    }
+
+    public boolean tryMark(int slot) {
+        boolean mark = oldBits.get(slot) ? oldMark : youngMark;
+        if (markBits.get(slot) == mark) return false;
+        markBits.put(slot, mark);
+        return true;
+    }
+
+    public boolean isMarked(int slot) {
+        return markBits.get(slot) == (oldBits.get(slot) ? oldMark : youngMark);
+    }
+
+    public void sweep(GCObject[] heapRegion) {
+        int swept = 0;
+        for (int i = 0; i < heapRegion.length; i++) {
+            if (heapRegion[i] != null && !isMarked(heapRegion[i].slot)) {
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + heapRegion[i].id());
+                liveBits.clear(heapRegion[i].slot);
+                storage.free(heapRegion[i].slot);
+                heapRegion[i] = null;
+                swept++;
+            }
+        }
+        metrics.swept(swept);
+    }
+
+    public void unmarkAll() {
+        markBits.fill(oldBits, !youngMark, !oldMark);
+    }
+
+    // sweep and compact the old generation in one pass, as the serial collector does
+    private int sweepAndCompact(GCObject[] heap, int limit) {
+        int top = 0;
+        int swept = 0;
+        int moved = 0;
+        for (int i = 0; i < limit; i++) {
+            GCObject object = heap[i];
+            if (!isMarked(object.slot)) {
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+                liveBits.clear(object.slot);
+                storage.free(object.slot);
+                heap[i] = null;
+                swept++;
+                continue;
+            }
+            if (i != top) {
+                heap[top] = object;
+                heap[i] = null;
+                moved++;
+            }
+            top++;
+        }
+        metrics.swept(swept);
+        metrics.compacted(moved);
+        return top;
+    }
+
+    // Cheney's algorithm: the to-space between the scan and the allocation pointer is the queue of copied
+    // objects whose references are still to be evacuated; objects promoted on the way are queued the same
+    // way at the end of the old generation, and so are the ones that stay in eden
+    private void evacuate() {
+        GcLog.debug(() -> "Dirty cards: " + cardTable.dirtyCards());
+        int scan = 0;
+        int promotedScan = oldPointer;
+        int stayedScan = 0;
+        for (GCObject root : rootObjects) {
+            if (oldBits.get(root.slot)) evacuateOldReferences(root.slot);
+            else copy(root.slot);
+        }
+        cardTable.processDirtyCards(storage.size(), this::evacuateOldReferences);
+        while (scan < toPointer || promotedScan < oldPointer || stayedScan < stayed.size()) {
+            if (scan < toPointer) {
+                evacuateReferences(toSpace[scan++].slot);
+                continue;
+            }
+            if (stayedScan < stayed.size()) {
+                evacuateReferences(stayed.get(stayedScan++).slot);
+                continue;
+            }
+            int slot = oldHeap[promotedScan++].slot;
+            // a promoted object that still points into the young generation is remembered like any old one
+            if (evacuateReferences(slot)) cardTable.dirty(slot);
+        }
+    }
+
+    private boolean evacuateOldReferences(int slot) {
+        return oldBits.get(slot) && liveBits.get(slot) && evacuateReferences(slot);
+    }
+
+    // evacuates the young objects slot references, returning whether any of them stayed young
+    private boolean evacuateReferences(int slot) {
+        boolean young = false;
+        boolean dangling = false;
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (!liveBits.get(child)) {
+                dangling = true;
+                continue;
+            }
+            if (oldBits.get(child)) continue;
+            copy(child);
+            if (!oldBits.get(child)) young = true;
+        }
+        if (dangling) storage.retainReferences(slot, this::isLive);
+        return young;
+    }
+
+    private void copy(int slot) {
+        if (!liveBits.get(slot) || markBits.get(slot) == youngMark) return;
+        markBits.put(slot, youngMark);
+        survive(new GCObject(storage, slot));
+    }
+
+    // after a full marking the young survivors are already known, so they are copied without tracing
+    private void copyMarked(GCObject[] space, int limit) {
+        for (int i = 0; i < limit; i++) {
+            GCObject object = space[i];
+            if (liveBits.get(object.slot) && markBits.get(object.slot) == youngMark) survive(object);
+        }
+    }
+
+    // ages a surviving young object and copies it to the to-space, or promotes it once it is old enough
+    // or the to-space is full. With no room in either it stays in eden, as after a promotion failure in HotSpot
+    private void survive(GCObject object) {
+        int age = object.age() + 1;
+        object.setAge(age);
+        boolean tenured = age >= sizePolicy.tenuringThreshold() || toPointer == toSpace.length;
+        if (tenured && oldPointer < oldHeap.length) {
+            placeOld(object);
+            promotedCount++;
+        } else if (toPointer < toSpace.length) {
+            toSpace[toPointer++] = object;
+            sizePolicy.recordSurvivor(age);
+        } else {
+            stayed.add(object);
+        }
+    }
+
+    // a real copying collector only resets eden and the from-space; here the objects left behind also
+    // lose their live bit, so isLive stays exact, and their slots are freed
+    private int discard(GCObject[] space, int limit) {
+        int dead = 0;
+        for (int i = 0; i < limit; i++) {
+            int slot = space[i].slot;
+            boolean survived = oldBits.get(slot) || (liveBits.get(slot) && markBits.get(slot) == youngMark);
+            if (!survived) {
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + space[i].id());
+                liveBits.clear(slot);
+                if (markBits.get(slot) == youngMark) reachedVictims.add(slot);
+                else storage.free(slot);
+                dead++;
+            }
+            space[i] = null;
+        }
+        return dead;
+    }
+
+    private void freeReachedVictims() {
+        for (int i = 0; i < reachedVictims.size(); i++) storage.free(reachedVictims.get(i));
+        reachedVictims.clear();
+    }
+
+    private void collectYoung() {
+        long start = System.nanoTime();
+        promotedCount = 0;
+        if (youngMarked) {
+            copyMarked(eden, edenPointer);
+            copyMarked(fromSpace, fromPointer);
+            youngMarked = false;
+        } else {
+            evacuate();
+            freeReachedVictims();
+        }
+        metrics.phase(GcMetrics.Phase.COPY, start);
+        start = System.nanoTime();
+        int dead = discard(eden, edenPointer) + discard(fromSpace, fromPointer);
+        if (stayed.size() > eden.length) {
+            throw new IllegalStateException("Heap exhausted: " + stayed.size() + " young survivors found no room");
+        }
+        edenPointer = 0;
+        for (GCObject object : stayed) eden[edenPointer++] = object;
+        stayed.clear();
+        GCObject[] emptied = fromSpace;
+        fromSpace = toSpace;
+        toSpace = emptied;
+        fromPointer = toPointer;
+        toPointer = 0;
+        sizePolicy.computeTenuringThreshold(fromSpace.length);
+        // every survivor is marked, so flipping the mark value unmarks them all
+        youngMark = !youngMark;
+        metrics.swept(dead);
+        metrics.promoted(promotedCount);
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+    }
+
+    // promotes the survivors that are old enough but stayed young because the old generation was full
+    // when they were copied; collections promote everything else themselves
+    public synchronized void promoteYoungObjects() {
+        GcLog.debug("Promoting Young Objects");
+        long start = System.nanoTime();
+        int promoted = 0;
+        int top = 0;
+        for (int i = 0; i < fromPointer; i++) {
+            GCObject object = fromSpace[i];
+            fromSpace[i] = null;
+            if (object.age() >= sizePolicy.tenuringThreshold() && oldPointer < oldHeap.length) {
+                placeOld(object);
+                promoted++;
+            } else {
+                fromSpace[top++] = object;
+            }
+        }
+        fromPointer = top;
+        metrics.promoted(promoted);
+        metrics.phase(GcMetrics.Phase.PROMOTE, start);
+    }
+
+    public int compact(GCObject[] heap) {
+        long start = System.nanoTime();
+        int compactPointer = 0;
+        int moved = 0;
+        for (int i = 0; i < heap.length; i++) {
+            if (heap[i] != null) {
+                heap[compactPointer++] = heap[i];
+                if (i != compactPointer - 1) {
+                    heap[i] = null;
+                    moved++;
+                }
+            }
+        }
+        metrics.compacted(moved);
+        metrics.phase(GcMetrics.Phase.COMPACT, start);
+        return compactPointer;
+    }
+
+    // the victim stays where it is until the collection drops it with the other dead objects
+    private void randomDeletion(GCObject[] heap, int limit) {
+        if (!randomDeletion || limit == 0) return;
+        int start = this.getRandom().nextInt(limit);
+        int position = start;
+        while ("Root".equals(heap[position].id())) {
+            position = (position + 1) % limit;
+            if (position == start) return;
+        }
+        GCObject victim = heap[position];
+        GcLog.debug(() -> "Random Deletion: " + victim.id());
+        GcLog.trace(() -> victim.describeReferences(victim));
+        liveBits.clear(victim.slot);
+    }
+
+    // only the old generation is marked and swept; the young spaces are evacuated instead
+    public void markAndSweep(GCObject[] heap, String heapName) {
+        if (heap != oldHeap) {
+            collectYoung();
+            return;
+        }
+        GcLog.debug(() -> heapName + " Marking and Sweeping");
+        long start = System.nanoTime();
+        for (GCObject obj : rootObjects) {
+            mark(obj);
+        }
+        freeReachedVictims();
+        metrics.phase(GcMetrics.Phase.MARK, start);
+        GcLog.trace(() -> heapName + " after Marking\n" + describeHeap());
+        start = System.nanoTime();
+        oldPointer = sweepAndCompact(oldHeap, oldPointer);
+        oldMark = !oldMark;
+        youngMarked = true;
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+        GcLog.trace(() -> heapName + " after sweep\n" + describeHeap());
+    }
+
+    public synchronized void minorGC() {
+        safepoint.run(() -> {
+            // every young object might end up promoted; when the old generation has no room for all of them
+            // the whole heap is collected instead, like HotSpot's promotion guarantee
+            if (!youngMarked && oldHeap.length - oldPointer < youngOccupancy()) {
+                GcLog.info("Old generation may not take the young survivors, collecting the whole heap");
+                metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+                fullGC();
+                return;
+            }
+            GcLog.info("Starting Minor GC:");
+            metrics.beginCollection(GcMetrics.Kind.MINOR, youngOccupancy(), oldPointer);
+            randomDeletion(eden, edenPointer);
+            collectYoung();
+            metrics.endCollection(youngOccupancy(), oldPointer);
+            GcLog.trace(() -> "Young Heap after copying\n" + describeHeap());
+        });
+    }
+
+    public synchronized void fullGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Full GC:");
+            metrics.beginCollection(GcMetrics.Kind.FULL, youngOccupancy(), oldPointer);
+            randomDeletion(oldHeap, oldPointer);
+            markAndSweep(oldHeap, "Old Heap");
+            // the young collection copies what the full marking found instead of tracing again
+            minorGC();
+            metrics.endCollection(youngOccupancy(), oldPointer);
+        });
+    }
+
+    public void printHeap() {
+        System.out.println(describeHeap());
+    }
+
+    public String describeHeap() {
+        StringBuilder sb = new StringBuilder("Eden\n");
+        describeSpace(eden, sb);
+        sb.append("\nSurvivor: \n");
+        describeSpace(fromSpace, sb);
+        sb.append("\nOld Heap: \n");
+        describeSpace(oldHeap, sb);
+        return sb.append('\n').toString();
+    }
+
+    private void describeSpace(GCObject[] space, StringBuilder sb) {
+        for (GCObject object : space) {
+            sb.append(object != null ? object.toString(isMarked(object.slot)) : "[ ]");
+        }
+    }
+}
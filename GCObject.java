@@ -1,23 +1,79 @@
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
 
+// a view over one slot of a HeapStorage; until a collector allocates it, it only carries its id. Once the
+// collector reclaimed the object, its slot may hold another one, so a view that outlived its object is inert:
+// it reads as nothing and changes nothing
 public class GCObject {
-    public volatile boolean marked = false;
-    int age = 0;
-    String id;
-    List<GCObject> references = new CopyOnWriteArrayList<>();
+    HeapStorage storage;
+    // stable index into the storage and the collector's liveness and mark bitmaps, assigned on first allocation
+    int slot = -1;
+    // the slot's generation while it held this object
+    int generation;
+    private String id;
 
     public GCObject(String id) {
         this.id = id;
     }
 
+    GCObject(HeapStorage storage, int slot) {
+        this.storage = storage;
+        this.slot = slot;
+        this.generation = storage.generation(slot);
+    }
+
+    void bind(HeapStorage storage) {
+        this.slot = storage.allocate(id);
+        this.generation = storage.generation(slot);
+        this.storage = storage;
+        this.id = null;
+    }
+
+    // true once a collector reclaimed the object and freed its slot
+    public boolean isReclaimed() {
+        return storage != null && storage.generation(slot) != generation;
+    }
+
+    public String id() {
+        if (storage == null) return id;
+        return isReclaimed() ? "<reclaimed>" : storage.id(slot);
+    }
+
+    public int age() {
+        return storage == null || isReclaimed() ? 0 : storage.age(slot);
+    }
+
+    public void setAge(int age) {
+        checkAllocated();
+        if (!isReclaimed()) storage.setAge(slot, age);
+    }
+
+    // a reference from or to a reclaimed object is dropped, as the next marking would have dropped it
     public void addReference(GCObject obj) {
-        references.add(obj);
+        checkAllocated();
+        if (obj.storage != storage) {
+            throw new IllegalArgumentException("Cannot reference " + obj.id() + ": it was not allocated in the same heap");
+        }
+        if (isReclaimed() || obj.isReclaimed()) return;
+        storage.addReference(slot, obj.slot);
+    }
+
+    public void removeReference(GCObject obj) {
+        checkAllocated();
+        if (isReclaimed() || obj.isReclaimed()) return;
+        storage.removeReference(slot, obj.slot);
+    }
+
+    private void checkAllocated() {
+        if (storage == null) throw new IllegalStateException(id + " has not been allocated yet");
     }
 
     @Override
     public String toString() {
-        return marked ? "[" + id + "*, age: "+ age+"]" : "[" + id + ", age: "+ age+"]";
+        return toString(false);
+    }
+
+    public String toString(boolean marked) {
+        return marked ? "[" + id() + "*, age: "+ age()+"]" : "[" + id() + ", age: "+ age()+"]";
     }
 
     @Override
@@ -25,34 +81,42 @@ public class GCObject {
         if (this == o) return true;
         if (!(o instanceof GCObject)) return false;
         GCObject that = (GCObject) o;
-        return Objects.equals(this.id, that.id);
+        if (storage == null && that.storage == null) return Objects.equals(id, that.id);
+        return storage == that.storage && slot == that.slot && generation == that.generation;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return storage == null ? Objects.hash(id) : slot;
     }
 
     public void printReferences(GCObject object) {
-        printReferences(object, new HashSet<>(), 0);
+        System.out.print(describeReferences(object));
+    }
+
+    public String describeReferences(GCObject object) {
+        StringBuilder sb = new StringBuilder();
+        describeReferences(object, new HashSet<>(), 0, sb);
+        return sb.toString();
     }
 
-    private void printReferences(GCObject object, Set<GCObject> visited, int depth) {
+    private void describeReferences(GCObject object, Set<Integer> visited, int depth, StringBuilder sb) {
 
         String indent = "  ".repeat(depth);
-        System.out.print(indent + object + " references: [");
-        for (int i = 0; i < object.references.size(); i++) {
-            System.out.print(object.references.get(i).id);
-            if (i < object.references.size() - 1) System.out.print(", ");
+        sb.append(indent).append(object).append(" references: [");
+        int count = object.storage == null ? 0 : object.storage.referenceCount(object.slot);
+        for (int i = 0; i < count; i++) {
+            sb.append(object.storage.id(object.storage.reference(object.slot, i)));
+            if (i < count - 1) sb.append(", ");
         }
-        System.out.println("]");
+        sb.append("]\n");
 
 
-        if (!visited.add(object)) return;
+        if (!visited.add(object.slot)) return;
 
 
-        for (GCObject ref : object.references) {
-            printReferences(ref, visited, depth + 1);
+        for (int i = 0; i < count; i++) {
+            describeReferences(new GCObject(object.storage, object.storage.reference(object.slot, i)), visited, depth + 1, sb);
         }
     }
 }
@@ -1,15 +1,113 @@
+import java.util.List;
+
 public interface GarbageCollector extends AutoCloseable {
 
     void mark(GCObject obj);
 
+    HeapStorage storage();
+
+    // false once the object in slot was swept or deleted; marking drops the dangling edges that still point to it
+    boolean isLive(int slot);
+
+    // sets the mark bit of slot, returning false if it was already set
+    boolean tryMark(int slot);
+
+    // whether the marking in progress has marked slot
+    boolean isMarked(int slot);
+
+    default void markFrom(GCObject root, MarkStack stack) {
+        if (isLive(root.slot)) markReference(root.slot, stack);
+        drainMarkStack(stack);
+    }
+
+    default void drainMarkStack(MarkStack stack) {
+        int slot;
+        while ((slot = stack.pop()) >= 0) {
+            scanReferences(slot, stack);
+        }
+        while ((slot = stack.takeOverflow()) >= 0) {
+            rescanMarked(slot, stack);
+        }
+    }
+
+    // the slots a full stack dropped were marked but never scanned. Scanning every marked object from the
+    // lowest of them on again reaches their children, as HotSpot does after a mark stack overflow
+    default void rescanMarked(int from, MarkStack stack) {
+        for (int slot = from, end = storage().size(); slot < end; slot++) {
+            if (!isLive(slot) || !isMarked(slot)) continue;
+            scanReferences(slot, stack);
+            int grey;
+            while ((grey = stack.pop()) >= 0) {
+                scanReferences(grey, stack);
+            }
+        }
+    }
+
+    default void scanReferences(int slot, MarkStack stack) {
+        HeapStorage storage = storage();
+        boolean dangling = false;
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (isLive(child)) markReference(child, stack);
+            else dangling = true;
+        }
+        if (dangling) storage.retainReferences(slot, this::isLive);
+    }
+
+    default void markReference(int slot, MarkStack stack) {
+        if (tryMark(slot)) {
+            stack.push(slot);
+        }
+    }
+
     void sweep(GCObject[] heap) throws InterruptedException;
     void minorGC();
     void fullGC();
     void markAndSweep(GCObject[] heap, String heapName) throws InterruptedException;
     int compact(GCObject[] heap);
+    // clears every mark bit, as the collectors do after each sweep
+    void unmarkAll();
     void promoteYoungObjects();
     void allocateYoung(GCObject object);
     void allocateOld(GCObject object);
+
+    // mutator entry points: heap changes made by mutator threads go through the collector, which
+    // keeps them out of a running collection
+    void addReference(GCObject from, GCObject to);
+    void removeReference(GCObject from, GCObject to);
+    // the object reaches the end of its life; the next collection reclaims it and whatever only it kept alive
+    void release(GCObject object);
+    // collections delete one random object by default; workloads that release objects themselves turn it off
+    void setRandomDeletion(boolean enabled);
+    // seeds the random references and deletions; with one mutator thread the same seed repeats the same run
+    void setSeed(long seed);
+    Safepoint safepoint();
+    GcMetrics metrics();
+    // the roots every marking starts from, read-only; they only hold still while no mutator runs
+    List<GCObject> rootObjects();
+
+    // heap snapshots: snapshot captures the roots and both generations while no mutator changes them, and
+    // restore places an object the way a snapshot recorded it, without a random reference or a collection
+    default HeapSnapshot snapshot() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support heap snapshots");
+    }
+
+    default void restore(GCObject object, boolean old, boolean root) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support heap snapshots");
+    }
+
+    // soft, weak and phantom references, see ReferenceProcessor: setReferent gives the allocated reference object
+    // an edge of that type to referent, which marking does not follow. Once a collection clears it, the reference
+    // object is posted to queue unless that is null
+    default void setReferent(GCObject reference, GCObject referent, ReferenceProcessor.Type type, GcReferenceQueue queue) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support soft, weak and phantom references");
+    }
+
+    // null once cleared, and always for a phantom reference
+    default GCObject getReferent(GCObject reference) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support soft, weak and phantom references");
+    }
+
     @Override
     default void close() {
         shutdown();
@@ -0,0 +1,418 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+// setup and measured operation of the JMH benchmarks in jmh/benchmarks. JMH only takes benchmark classes
+// from a named package, and those cannot refer to classes in the default package, so they call fixture
+// through reflection and get back a Fixture that only implements JDK interfaces. Collector logging is off
+// unless -Dgc.log says otherwise, and graphs and compact layouts come from --seed
+//
+// GcBenchmark.fixture("alloc|pause.minor|pause.full|mark|compact|sweep|refs|replay.restore|replay.minor|replay.full",
+//                     "--collector=serial|parallel|copying|region", "--heap=object", "--young=1000", "--old=10000",
+//                     "--roots=4", "--threshold=2", "--threads=2", "--workers=forkjoin|gang|virtual",
+//                     "--mutators=1", "--sweep=eager|lazy",
+//                     "--topology=random|list|tree:4|cycles:16|powerlaw:2|cache:1000:0.5",
+//                     "--shape=chain|fanout|dag|cycles", "--nodes=10000", "--density=0.5", "--layout=uniform|skewed",
+//                     "--type=soft|weak|phantom", "--references=10000", "--snapshot=path", "--seed=42")
+public class GcBenchmark {
+    // objects the pause benchmark keeps reachable, as a fraction of the old heap
+    private static final double LIVE_FRACTION = 0.5;
+
+    private final String[] options;
+    private final long seed;
+
+    private GcBenchmark(String[] options) {
+        this.options = options;
+        this.seed = Long.parseLong(option("seed", "42"));
+    }
+
+    public static Object fixture(String bench, String... options) {
+        // must happen before the first collector is created, see Main
+        if (System.getProperty("gc.log") == null) System.setProperty("gc.log", "off");
+
+        GcBenchmark benchmark = new GcBenchmark(options);
+        switch (bench) {
+            case "alloc":          return benchmark.allocationFixture();
+            case "pause.minor":    return benchmark.pauseFixture(false);
+            case "pause.full":     return benchmark.pauseFixture(true);
+            case "mark":           return benchmark.markFixture();
+            case "compact":        return benchmark.compactFixture();
+            case "sweep":          return benchmark.sweepFixture();
+            case "refs":           return benchmark.referencesFixture();
+            case "replay.restore": return benchmark.replayFixture("restore");
+            case "replay.minor":   return benchmark.replayFixture("minor");
+            case "replay.full":    return benchmark.replayFixture("full");
+            default: throw new IllegalArgumentException("Invalid bench: '" + bench
+                    + "' (valid: alloc, pause.minor, pause.full, mark, compact, sweep, refs, replay.restore, replay.minor, replay.full)");
+        }
+    }
+
+    // allocateYoung throughput of the workload driver's mutators building the --topology graph; every invocation
+    // runs in a fresh collector, seeded the same way
+    private Fixture allocationFixture() {
+        Config config = config();
+        int mutators = parsePositiveInt(option("mutators", "1"), "mutators");
+        GraphTopology topology = GraphTopology.parse(option("topology", "random"));
+        int allocations = Math.max(100_000, 20 * config.young);
+        // mostly short-lived objects, with the long-lived ones bounded well below the old heap
+        LifetimeDistribution lifetime = LifetimeDistribution.generational(0.9,
+                Math.max(1, config.young / (8.0 * mutators)), Math.max(1, config.old / (20.0 * mutators)));
+        GarbageCollector[] collector = new GarbageCollector[1];
+        WorkloadDriver[] driver = new WorkloadDriver[1];
+        return new Fixture(() -> {
+            if (collector[0] != null) collector[0].close();
+            collector[0] = config.create(seed);
+            collector[0].setRandomDeletion(false);
+            driver[0] = new WorkloadDriver(collector[0], mutators, false, allocations / mutators, 0, 0.1, 0.05, lifetime,
+                    topology, seed);
+        }, () -> driver[0].run(), () -> {
+            if (collector[0] != null) collector[0].close();
+        });
+    }
+
+    // minorGC or fullGC pauses over a steady live set; the young heap is half refilled before each one
+    private Fixture pauseFixture(boolean full) {
+        Config config = config();
+        GarbageCollector collector = config.create(seed);
+        collector.setRandomDeletion(false);
+        Churn churn = new Churn(collector, Math.max(1, (int) (config.old * LIVE_FRACTION)));
+        return new Fixture(() -> churn.allocate(config.young / 2), () -> {
+            if (full) collector.fullGC();
+            else collector.minorGC();
+            return collector;
+        }, collector::close);
+    }
+
+    // mark from one root over a synthetic object graph kept in the old heap, unmarked before every invocation
+    private Fixture markFixture() {
+        int nodes = parsePositiveInt(option("nodes", "10000"), "nodes");
+        GarbageCollector collector = config(16, nodes + 16, 1, 0).create(seed);
+        GCObject root = buildGraph(collector, option("shape", "chain"), nodes, new Random(seed));
+        return new Fixture(collector::unmarkAll, () -> {
+            collector.mark(root);
+            return root;
+        }, collector::close);
+    }
+
+    // compacting a heap region of --old slots, --density of them occupied; every invocation gets a fresh copy
+    private Fixture compactFixture() {
+        GarbageCollector collector = config(16, 16, 1, 0).create(seed);
+        int size = parsePositiveInt(option("old", "10000"), "old");
+        double density = Double.parseDouble(option("density", "0.5"));
+        Random random = new Random(seed);
+        GCObject[] template = new GCObject[size];
+        for (int i = 0; i < size; i++) {
+            if (random.nextDouble() < density) template[i] = new GCObject("C" + i);
+        }
+        GCObject[][] heap = new GCObject[1][];
+        return new Fixture(() -> heap[0] = template.clone(), () -> collector.compact(heap[0]), collector::close);
+    }
+
+    // the swept objects stay unmarked, so every invocation sweeps a fresh copy of the same heap
+    private Fixture sweepFixture() {
+        int size = parsePositiveInt(option("old", "10000"), "old");
+        GarbageCollector collector = config(16, size + 16, 1, 0).create(seed);
+        collector.setRandomDeletion(false);
+        GCObject[] template = sweepHeap(collector, size, Double.parseDouble(option("density", "0.5")),
+                option("layout", "uniform"), new Random(seed));
+        GCObject[][] heap = new GCObject[1][];
+        return new Fixture(() -> heap[0] = template.clone(), () -> {
+            collector.sweep(heap[0]);
+            return heap[0];
+        }, collector::close);
+    }
+
+    // the full collection clears the references, so every invocation builds the heap in a fresh collector
+    private Fixture referencesFixture() {
+        ReferenceProcessor.Type type = parseReferenceType(option("type", "weak"));
+        int count = parsePositiveInt(option("references", "10000"), "references");
+        double density = Double.parseDouble(option("density", "0.5"));
+        Config config = config(16, 2 * count + 16, 0, 0);
+        GarbageCollector[] collector = new GarbageCollector[1];
+        return new Fixture(() -> {
+            if (collector[0] != null) collector[0].close();
+            collector[0] = config.create(seed);
+            collector[0].setRandomDeletion(false);
+            buildReferences(collector[0], type, count, density, new Random(seed));
+        }, () -> {
+            collector[0].fullGC();
+            return collector[0];
+        }, () -> {
+            if (collector[0] != null) collector[0].close();
+        });
+    }
+
+    // restoring a heap snapshot into a fresh collector sized like the one it was taken from, or one minorGC or
+    // fullGC of the restored heap
+    private Fixture replayFixture(String step) {
+        HeapSnapshot snapshot = snapshot();
+        Config config = config(snapshot.youngCapacity(), snapshot.oldCapacity(), 0,
+                parseNonNegativeInt(option("threshold", "2"), "threshold"));
+        GarbageCollector[] collector = new GarbageCollector[1];
+        return new Fixture(() -> {
+            if (collector[0] != null) collector[0].close();
+            collector[0] = config.create(seed);
+            collector[0].setRandomDeletion(false);
+            if (!step.equals("restore")) snapshot.restore(collector[0]);
+        }, () -> {
+            switch (step) {
+                case "restore": snapshot.restore(collector[0]); break;
+                case "minor":   collector[0].minorGC(); break;
+                default:        collector[0].fullGC(); break;
+            }
+            return collector[0];
+        }, () -> {
+            if (collector[0] != null) collector[0].close();
+        });
+    }
+
+    // the snapshot at --snapshot=path, as written by Main --snapshot-out, or else one of the pause benchmark's
+    // steady heap
+    private HeapSnapshot snapshot() {
+        String file = option("snapshot", "");
+        if (file.isEmpty()) {
+            Config config = config();
+            try (GarbageCollector collector = config.create(seed)) {
+                collector.setRandomDeletion(false);
+                new Churn(collector, Math.max(1, (int) (config.old * LIVE_FRACTION))).allocate(config.old);
+                return collector.snapshot();
+            }
+        }
+        try {
+            return HeapSnapshot.read(Paths.get(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static GCObject buildGraph(GarbageCollector collector, String shape, int nodes, Random random) {
+        GCObject[] objects = new GCObject[nodes];
+        for (int i = 0; i < nodes; i++) {
+            objects[i] = new GCObject("N" + i);
+            collector.allocateOld(objects[i]);
+        }
+        switch (shape) {
+            case "chain":
+                for (int i = 1; i < nodes; i++) collector.addReference(objects[i - 1], objects[i]);
+                break;
+            case "fanout":
+                for (int i = 1; i < nodes; i++) collector.addReference(objects[0], objects[i]);
+                break;
+            case "dag":
+                // every node is reachable from an earlier one and has two more edges from earlier nodes
+                for (int i = 1; i < nodes; i++) {
+                    for (int e = 0; e < 3; e++) collector.addReference(objects[random.nextInt(i)], objects[i]);
+                }
+                break;
+            case "cycles":
+                // a ring with a back edge from every fourth node to an earlier one
+                for (int i = 1; i < nodes; i++) collector.addReference(objects[i - 1], objects[i]);
+                collector.addReference(objects[nodes - 1], objects[0]);
+                for (int i = 4; i < nodes; i += 4) collector.addReference(objects[i], objects[random.nextInt(i)]);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid shape: '" + shape + "' (valid: chain, fanout, dag, cycles)");
+        }
+        return objects[0];
+    }
+
+    // size old objects, density of them marked, spread evenly (uniform) or all at the start (skewed)
+    private static GCObject[] sweepHeap(GarbageCollector collector, int size, double density, String layout, Random random) {
+        GCObject[] heap = new GCObject[size];
+        for (int i = 0; i < size; i++) {
+            heap[i] = new GCObject("S" + i);
+            collector.allocateOld(heap[i]);
+            boolean marked;
+            switch (layout) {
+                case "uniform": marked = random.nextDouble() < density; break;
+                case "skewed":  marked = i < size * density; break;
+                default: throw new IllegalArgumentException("Invalid layout: '" + layout + "' (valid: uniform, skewed)");
+            }
+            if (marked) collector.tryMark(heap[i].slot);
+        }
+        return heap;
+    }
+
+    private static ReferenceProcessor.Type parseReferenceType(String type) {
+        for (ReferenceProcessor.Type candidate : ReferenceProcessor.Type.values()) {
+            if (candidate.name().equalsIgnoreCase(type)) return candidate;
+        }
+        throw new IllegalArgumentException("Invalid type: '" + type + "' (valid: soft, weak, phantom)");
+    }
+
+    // a root referencing count reference objects, each with a referent of its own in the old heap
+    private static void buildReferences(GarbageCollector collector, ReferenceProcessor.Type type, int count, double density, Random random) {
+        GcReferenceQueue queue = new GcReferenceQueue();
+        collector.safepoint().run(() -> {
+            GCObject root = new GCObject("Root");
+            collector.restore(root, true, true);
+            for (int i = 0; i < count; i++) {
+                GCObject reference = new GCObject("Ref" + i);
+                GCObject referent = new GCObject("R" + i);
+                collector.restore(reference, true, false);
+                collector.restore(referent, true, false);
+                collector.addReference(root, reference);
+                if (random.nextDouble() < density) collector.addReference(root, referent);
+                collector.setReferent(reference, referent, type, queue);
+            }
+        });
+    }
+
+    // allocates through the collector while keeping only the most recent objects reachable
+    private static final class Churn {
+        private final GarbageCollector collector;
+        private final int liveObjects;
+        private final ArrayDeque<GCObject> live = new ArrayDeque<>();
+        private long counter = 0;
+
+        Churn(GarbageCollector collector, int liveObjects) {
+            this.collector = collector;
+            this.liveObjects = liveObjects;
+        }
+
+        void allocate(int count) {
+            for (int i = 0; i < count; i++) {
+                GCObject object = new GCObject("Obj" + ++counter);
+                collector.allocateYoung(object);
+                live.addLast(object);
+                if (live.size() > liveObjects) collector.release(live.removeFirst());
+            }
+        }
+    }
+
+    // run prepares the next invocation outside the measurement, call is the measured operation and close
+    // releases the collector
+    private static final class Fixture implements Runnable, Callable<Object>, AutoCloseable {
+        private final Runnable prepare;
+        private final Callable<Object> operation;
+        private final Runnable release;
+
+        Fixture(Runnable prepare, Callable<Object> operation, Runnable release) {
+            this.prepare = prepare;
+            this.operation = operation;
+            this.release = release;
+        }
+
+        public void run() {
+            prepare.run();
+        }
+
+        public Object call() throws Exception {
+            return operation.call();
+        }
+
+        public void close() {
+            release.run();
+        }
+    }
+
+    private static final class Config {
+        final String collector;
+        final String heap;
+        final int young;
+        final int old;
+        final int roots;
+        final int threshold;
+        final int threads;
+        final String workers;
+        final boolean lazySweep;
+
+        Config(String collector, String heap, int young, int old, int roots, int threshold, int threads, String workers, boolean lazySweep) {
+            this.collector = collector;
+            this.heap = heap;
+            this.young = young;
+            this.old = old;
+            this.roots = roots;
+            this.threshold = threshold;
+            this.threads = threads;
+            this.workers = workers;
+            this.lazySweep = lazySweep;
+        }
+
+        // seeded, so the collector's random references and deletions repeat in every iteration
+        GarbageCollector create(long seed) {
+            GarbageCollector collector = create();
+            collector.setSeed(seed);
+            return collector;
+        }
+
+        private GarbageCollector create() {
+            boolean parallel = collector.equals("parallel");
+            HeapStorage storage;
+            switch (heap) {
+                case "object": storage = new ObjectHeapStorage(parallel); break;
+                case "array":  storage = new ArrayHeapStorage(parallel); break;
+                default: throw new IllegalArgumentException("Invalid heap: '" + heap + "' (valid: object, array)");
+            }
+            switch (collector) {
+                case "serial":
+                    SerialGarbageCollector serial = new SerialGarbageCollector(young, old, roots, threshold, storage);
+                    if (lazySweep) serial.setLazySweeping(true, LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD);
+                    return serial;
+                case "parallel":
+                    ParallelGarbageCollector parallelCollector = new ParallelGarbageCollector(young, old, roots, GcWorkers.create(workers, threads),
+                            AdaptiveSizePolicy.fixedSize(young, old, threshold), storage);
+                    if (lazySweep) parallelCollector.setLazySweeping(true, LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD);
+                    return parallelCollector;
+                case "copying":
+                    return new CopyingGarbageCollector(young, old, roots, threshold, CopyingGarbageCollector.DEFAULT_SURVIVOR_RATIO, storage);
+                case "region":
+                    return new RegionGarbageCollector(young, old, roots, threshold, RegionGarbageCollector.defaultRegionSize(young + old),
+                            RegionGarbageCollector.DEFAULT_PAUSE_TARGET_MILLIS, storage);
+                default: throw new IllegalArgumentException("Invalid collector: '" + collector + "' (valid: serial, parallel, copying, region)");
+            }
+        }
+    }
+
+    private Config config() {
+        return config(parsePositiveInt(option("young", "1000"), "young"), parsePositiveInt(option("old", "10000"), "old"),
+                parsePositiveInt(option("roots", "4"), "roots"), parseNonNegativeInt(option("threshold", "2"), "threshold"));
+    }
+
+    private Config config(int young, int old, int roots, int threshold) {
+        String collector = option("collector", "serial");
+        return new Config(collector, option("heap", "object"), young, old, roots, threshold,
+                parsePositiveInt(option("threads", "2"), "threads"), option("workers", "forkjoin"), lazySweep(collector));
+    }
+
+    // only the serial and parallel collectors can sweep their old generation lazily
+    private boolean lazySweep(String collector) {
+        String mode = option("sweep", "eager");
+        if (!mode.equals("eager") && !mode.equals("lazy")) {
+            throw new IllegalArgumentException("Invalid sweep: '" + mode + "' (valid: eager, lazy)");
+        }
+        boolean lazySweep = mode.equals("lazy");
+        if (lazySweep && !collector.equals("serial") && !collector.equals("parallel")) {
+            throw new IllegalArgumentException("sweep=lazy needs the serial or parallel collector (got " + collector + ")");
+        }
+        return lazySweep;
+    }
+
+    private String option(String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String option : options) {
+            if (option.startsWith(prefix)) return option.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+
+    private static int parsePositiveInt(String s, String name) {
+        int v = parseNonNegativeInt(s, name);
+        if (v == 0) throw new IllegalArgumentException(name + " must be > 0 (got " + v + ")");
+        return v;
+    }
+
+    private static int parseNonNegativeInt(String s, String name) {
+        int v;
+        try {
+            v = Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": '" + s + "'", e);
+        }
+        if (v < 0) throw new IllegalArgumentException(name + " must be >= 0 (got " + v + ")");
+        return v;
+    }
+}
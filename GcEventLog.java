@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// structured GC log, one JSON object per line, read back by GcLogAnalyzer:
+//   {"type":"start","collector":"SerialGarbageCollector"}
+//   {"type":"gc","timeMs":12.345,"kind":"minor","cause":"allocation_failure","nested":false,"durationMs":0.210,
+//    "markMs":...,"referenceMs":...,"sweepMs":...,"compactMs":...,"promoteMs":...,"copyMs":...,
+//    "youngBefore":...,"youngAfter":...,"youngCapacity":...,"oldBefore":...,"oldAfter":...,"oldCapacity":...,
+//    "swept":...,"promoted":...,"compacted":...,"referencesCleared":...,"gcThreads":...}
+//   {"type":"end","timeMs":...}
+// Times are milliseconds since the log was opened. A nested collection is part of the pause of the one around
+// it and ends, so is written, first. The collecting thread only hands each event over; a background thread
+// formats it and writes it through a buffered FileChannel
+public class GcEventLog implements GcMetrics.Listener, AutoCloseable {
+    private static final int QUEUE_CAPACITY = 1 << 12;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // how long the writer waits for another event before it flushes what it has
+    private static final long IDLE_FLUSH_MILLIS = 50;
+
+    private final long originNanos = System.nanoTime();
+    private final GcMetrics metrics;
+    private final BlockingQueue<GcMetrics.CollectionEvent> events = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final FileChannel channel;
+    // every line is ASCII, so characters go into the buffer as they are
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(512);
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile long endNanos;
+    private volatile IOException failure;
+
+    // logs every collection of collector from now on to file, replacing what it held
+    public GcEventLog(GarbageCollector collector, Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        metrics = collector.metrics();
+        line.append("{\"type\":\"start\",\"collector\":\"").append(collector.getClass().getSimpleName()).append("\"}");
+        writeLine();
+        writer = new Thread(this::drain, "gc-event-log");
+        writer.setDaemon(true);
+        writer.start();
+        metrics.addListener(this);
+    }
+
+    @Override
+    public void collectionFinished(GcMetrics.CollectionEvent event) {
+        // a writer that falls behind holds up the collection instead of losing events, unless it failed
+        boolean interrupted = false;
+        while (failure == null) {
+            try {
+                events.put(event);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                GcMetrics.CollectionEvent event = events.poll(IDLE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    append(event);
+                    writeLine();
+                } else if (closed) {
+                    break;
+                } else {
+                    flush();
+                }
+            }
+            line.append("{\"type\":\"end\",\"timeMs\":");
+            appendMillis(endNanos - originNanos);
+            line.append('}');
+            writeLine();
+            flush();
+        } catch (IOException e) {
+            failure = e;
+            events.clear();
+        } catch (InterruptedException e) {
+            failure = new IOException("GC event log writer was interrupted", e);
+            events.clear();
+        }
+    }
+
+    private void append(GcMetrics.CollectionEvent event) {
+        line.append("{\"type\":\"gc\",\"timeMs\":");
+        appendMillis(event.startNanos - originNanos);
+        line.append(",\"kind\":\"").append(event.kind.name().toLowerCase())
+                .append("\",\"cause\":\"").append(event.cause.name().toLowerCase())
+                .append("\",\"nested\":").append(event.nested)
+                .append(",\"durationMs\":");
+        appendMillis(event.durationNanos);
+        for (GcMetrics.Phase phase : GcMetrics.Phase.values()) {
+            line.append(",\"").append(phase.name().toLowerCase()).append("Ms\":");
+            appendMillis(event.phaseNanos(phase));
+        }
+        line.append(",\"youngBefore\":").append(event.youngBefore)
+                .append(",\"youngAfter\":").append(event.youngAfter)
+                .append(",\"youngCapacity\":").append(event.youngCapacity)
+                .append(",\"oldBefore\":").append(event.oldBefore)
+                .append(",\"oldAfter\":").append(event.oldAfter)
+                .append(",\"oldCapacity\":").append(event.oldCapacity)
+                .append(",\"swept\":").append(event.swept)
+                .append(",\"promoted\":").append(event.promoted)
+                .append(",\"compacted\":").append(event.compacted)
+                .append(",\"referencesCleared\":").append(event.cleared)
+                .append(",\"gcThreads\":").append(event.gcThreads)
+                .append('}');
+    }
+
+    // milliseconds with microsecond precision, without going through String.format
+    private void appendMillis(long nanos) {
+        long micros = Math.max(0, nanos) / 1000;
+        line.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) line.append('0');
+        if (fraction < 10) line.append('0');
+        line.append(fraction);
+    }
+
+    private void writeLine() throws IOException {
+        line.append('\n');
+        if (buffer.remaining() < line.length()) flush();
+        for (int i = 0; i < line.length(); i++) {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) line.charAt(i));
+        }
+        line.setLength(0);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // writes the events logged so far and closes the file
+    @Override
+    public void close() throws IOException {
+        metrics.removeListener(this);
+        endNanos = System.nanoTime();
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        if (failure != null) throw failure;
+    }
+}
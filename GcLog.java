@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.util.function.Supplier;
+
+// leveled collector log; the level is read once at startup from -Dgc.log=off|info|debug|trace, so a
+// disabled level is a static final false and the JIT drops the call, message supplier included
+public final class GcLog {
+    public enum Level { OFF, INFO, DEBUG, TRACE }
+
+    public static final Level LEVEL = parseLevel(System.getProperty("gc.log", "info"));
+    public static final boolean INFO = LEVEL.compareTo(Level.INFO) >= 0;
+    public static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) >= 0;
+    public static final boolean TRACE = LEVEL.compareTo(Level.TRACE) >= 0;
+
+    public interface Sink {
+        void write(Level level, String message);
+    }
+
+    // -Dgc.log.file=<path> sends the log through a ring buffer drained by a background writer thread
+    private static final Sink SINK = createSink(System.getProperty("gc.log.file"));
+
+    private GcLog() {
+    }
+
+    public static void info(String message) {
+        if (INFO) SINK.write(Level.INFO, message);
+    }
+
+    public static void info(Supplier<String> message) {
+        if (INFO) SINK.write(Level.INFO, message.get());
+    }
+
+    public static void debug(String message) {
+        if (DEBUG) SINK.write(Level.DEBUG, message);
+    }
+
+    public static void debug(Supplier<String> message) {
+        if (DEBUG) SINK.write(Level.DEBUG, message.get());
+    }
+
+    public static void trace(String message) {
+        if (TRACE) SINK.write(Level.TRACE, message);
+    }
+
+    public static void trace(Supplier<String> message) {
+        if (TRACE) SINK.write(Level.TRACE, message.get());
+    }
+
+    private static Level parseLevel(String s) {
+        try {
+            return Level.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid log level: '" + s + "' (valid: off, info, debug, trace)", e);
+        }
+    }
+
+    private static Sink createSink(String file) {
+        if (file == null || LEVEL == Level.OFF) return (level, message) -> System.out.println(message);
+        try {
+            RingBufferLogSink sink = new RingBufferLogSink(file);
+            Runtime.getRuntime().addShutdownHook(new Thread(sink::close));
+            return sink;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot open log file: '" + file + "'", e);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// offline analysis of the GC event logs GcEventLog writes (Main --gc-log=path). A log is read one line at a time
+// into histograms and counters, so a log of a long soak run never has to fit into memory. For each log it prints
+// the pause percentiles per kind and the phase times, how often each cause started a collection, the rates at
+// which objects were allocated and promoted, and the share of time the mutators ran. As GC log viewers do, the
+// allocation between two collections is the occupancy before the second minus the occupancy after the first
+//
+// java GcLogAnalyzer <log> [<log> ...]
+public class GcLogAnalyzer {
+    private final Map<GcMetrics.Kind, LatencyHistogram> pauses = new EnumMap<>(GcMetrics.Kind.class);
+    private final Map<GcMetrics.Phase, LatencyHistogram> phases = new EnumMap<>(GcMetrics.Phase.class);
+    private final Map<String, Long> causes = new TreeMap<>();
+    private String collector = "unknown collector";
+    private long collections = 0;
+    private long pauseNanos = 0;
+    private long allocated = 0;
+    private long promoted = 0;
+    private long swept = 0;
+    private long referencesCleared = 0;
+    private int gcThreads = 0;
+    // the occupancy after the last collection that was not nested in another one
+    private long occupancyAfter = 0;
+    private double endMillis = 0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) throw new IllegalArgumentException("Usage: java GcLogAnalyzer <log> [<log> ...]");
+        for (String file : args) {
+            GcLogAnalyzer analyzer = new GcLogAnalyzer();
+            analyzer.read(Paths.get(file));
+            System.out.println(file + ": " + analyzer.report());
+        }
+    }
+
+    private GcLogAnalyzer() {
+        for (GcMetrics.Kind kind : GcMetrics.Kind.values()) pauses.put(kind, new LatencyHistogram());
+        for (GcMetrics.Phase phase : GcMetrics.Phase.values()) phases.put(phase, new LatencyHistogram());
+    }
+
+    private void read(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            Map<String, String> fields = new HashMap<>();
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isEmpty()) continue;
+                fields.clear();
+                if (!parse(line, fields)) throw new IOException(file + ":" + number + ": not a GC event log line: " + line);
+                try {
+                    add(fields);
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + number + ": invalid GC event: " + line, e);
+                }
+            }
+        }
+    }
+
+    private void add(Map<String, String> fields) {
+        String type = fields.getOrDefault("type", "");
+        switch (type) {
+            case "start":
+                collector = fields.getOrDefault("collector", collector);
+                return;
+            case "end":
+                endMillis = Math.max(endMillis, number(fields, "timeMs"));
+                return;
+            case "gc":
+                break;
+            default:
+                throw new IllegalArgumentException("unknown event type '" + type + "'");
+        }
+        GcMetrics.Kind kind = GcMetrics.Kind.valueOf(string(fields, "kind").toUpperCase());
+        long duration = nanos(number(fields, "durationMs"));
+        collections++;
+        causes.merge(kind.name().toLowerCase() + " " + string(fields, "cause"), 1L, Long::sum);
+        for (GcMetrics.Phase phase : GcMetrics.Phase.values()) {
+            long phaseNanos = nanos(number(fields, phase.name().toLowerCase() + "Ms"));
+            if (phaseNanos > 0) phases.get(phase).record(phaseNanos);
+        }
+        // nested collections count towards the totals, but their pause is part of the enclosing one's
+        promoted += (long) number(fields, "promoted");
+        swept += (long) number(fields, "swept");
+        referencesCleared += (long) number(fields, "referencesCleared");
+        gcThreads = Math.max(gcThreads, (int) number(fields, "gcThreads"));
+        endMillis = Math.max(endMillis, number(fields, "timeMs") + number(fields, "durationMs"));
+        if (Boolean.parseBoolean(string(fields, "nested"))) return;
+        pauses.get(kind).record(duration);
+        pauseNanos += duration;
+        long before = (long) (number(fields, "youngBefore") + number(fields, "oldBefore"));
+        allocated += Math.max(0, before - occupancyAfter);
+        occupancyAfter = (long) (number(fields, "youngAfter") + number(fields, "oldAfter"));
+    }
+
+    private String report() {
+        double seconds = endMillis / 1e3;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s, %d GC threads, %.3f s, %d collections%n", collector, gcThreads, seconds, collections));
+        for (GcMetrics.Kind kind : GcMetrics.Kind.values()) {
+            LatencyHistogram histogram = pauses.get(kind);
+            if (histogram.getCount() == 0) continue;
+            sb.append(String.format("%s pauses: n=%d avg %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                    kind.name().charAt(0) + kind.name().substring(1).toLowerCase(), histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMax() / 1e6));
+        }
+        for (GcMetrics.Phase phase : GcMetrics.Phase.values()) {
+            LatencyHistogram histogram = phases.get(phase);
+            if (histogram.getCount() == 0) continue;
+            sb.append(phase.name().charAt(0)).append(phase.name().substring(1).toLowerCase()).append(" phase: ")
+                    .append(histogram).append('\n');
+        }
+        sb.append("Causes:");
+        causes.forEach((cause, count) -> sb.append(' ').append(cause).append(' ').append(count).append(','));
+        sb.setLength(sb.length() - (causes.isEmpty() ? 0 : 1));
+        sb.append(String.format("%nAllocation rate: %.0f objects/s, promotion rate: %.0f objects/s (allocated %d, promoted %d, swept %d, references cleared %d)%n",
+                seconds > 0 ? allocated / seconds : 0, seconds > 0 ? promoted / seconds : 0, allocated, promoted, swept, referencesCleared));
+        sb.append(String.format("Throughput: %.2f%% (paused %.3f s)", seconds > 0 ? 100 * (1 - pauseNanos / 1e9 / seconds) : 100, pauseNanos / 1e9));
+        return sb.toString();
+    }
+
+    private static String string(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null) throw new IllegalArgumentException("missing field '" + name + "'");
+        return value;
+    }
+
+    private static double number(Map<String, String> fields, String name) {
+        return Double.parseDouble(string(fields, name));
+    }
+
+    private static long nanos(double millis) {
+        return Math.round(millis * 1e6);
+    }
+
+    // the flat objects GcEventLog writes: string, number and boolean values, no nesting and no escapes
+    static boolean parse(String line, Map<String, String> fields) {
+        int i = skipSpaces(line, 0);
+        if (i == line.length() || line.charAt(i) != '{') return false;
+        i = skipSpaces(line, i + 1);
+        if (i < line.length() && line.charAt(i) == '}') return skipSpaces(line, i + 1) == line.length();
+        while (true) {
+            if (i == line.length() || line.charAt(i) != '"') return false;
+            int end = line.indexOf('"', i + 1);
+            if (end < 0) return false;
+            String name = line.substring(i + 1, end);
+            i = skipSpaces(line, end + 1);
+            if (i == line.length() || line.charAt(i) != ':') return false;
+            i = skipSpaces(line, i + 1);
+            if (i == line.length()) return false;
+            if (line.charAt(i) == '"') {
+                end = line.indexOf('"', i + 1);
+                if (end < 0) return false;
+                fields.put(name, line.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                end = i;
+                while (end < line.length() && line.charAt(end) != ',' && line.charAt(end) != '}') end++;
+                fields.put(name, line.substring(i, end).trim());
+                i = end;
+            }
+            i = skipSpaces(line, i);
+            if (i == line.length()) return false;
+            if (line.charAt(i) == '}') return skipSpaces(line, i + 1) == line.length();
+            if (line.charAt(i) != ',') return false;
+            i = skipSpaces(line, i + 1);
+        }
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+}
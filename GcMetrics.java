@@ -0,0 +1,264 @@
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what a collector has done so far: pause and phase latency histograms, cumulative counters and the heap
+// occupancy around each collection, read as a snapshot or pushed to listeners after every collection
+public class GcMetrics {
+    // MIXED collections evacuate old regions along with the young ones; REMARK is the pause that finishes
+    // a concurrent marking cycle
+    public enum Kind { MINOR, MIXED, FULL, REMARK }
+
+    // the collectors sweep and compact a region in one pass, timed as SWEEP; COMPACT times standalone compactions.
+    // COPY is the evacuation of a copying young generation, REFERENCE the processing of soft, weak and phantom
+    // references between marking and sweeping
+    public enum Phase { MARK, REFERENCE, SWEEP, COMPACT, PROMOTE, COPY }
+
+    // why a collection started. A collection nested in another one is the young half of a FULL_GC or, nested in a
+    // young one, a full collection after a PROMOTION_FAILURE; REMARK pauses end a CONCURRENT_MARK. Collections
+    // nobody gave a cause for were called directly
+    public enum Cause { ALLOCATION_FAILURE, PROMOTION_FAILURE, FULL_GC, CONCURRENT_MARK, EXPLICIT }
+
+    public interface Listener {
+        // called on the collecting thread before the pause ends, so it should return quickly
+        void collectionFinished(CollectionEvent event);
+    }
+
+    // a nested collection counts, but its pause is part of the enclosing one's and stays out of the histogram
+    private final Map<Kind, AtomicLong> collections = new EnumMap<>(Kind.class);
+    private final Map<Kind, LatencyHistogram> pauses = new EnumMap<>(Kind.class);
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final AtomicLong objectsSwept = new AtomicLong();
+    private final AtomicLong objectsPromoted = new AtomicLong();
+    private final AtomicLong objectsCompacted = new AtomicLong();
+    private final AtomicLong referencesCleared = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // an adaptive size policy may resize the generations at the end of a collection
+    private volatile int youngCapacity;
+    private volatile int oldCapacity;
+    private final int gcThreads;
+    // collections only run at a safepoint, so only the thread holding it opens and closes them
+    private OpenCollection current;
+    // the cause given for the next collection to begin, see cause
+    private Cause nextCause;
+    private volatile CollectionEvent last;
+
+    public GcMetrics(int youngCapacity, int oldCapacity) {
+        this(youngCapacity, oldCapacity, 1);
+    }
+
+    public GcMetrics(int youngCapacity, int oldCapacity, int gcThreads) {
+        this.youngCapacity = youngCapacity;
+        this.oldCapacity = oldCapacity;
+        this.gcThreads = gcThreads;
+        for (Kind kind : Kind.values()) {
+            collections.put(kind, new AtomicLong());
+            pauses.put(kind, new LatencyHistogram());
+        }
+        for (Phase phase : Phase.values()) phases.put(phase, new LatencyHistogram());
+    }
+
+    public void resized(int youngCapacity, int oldCapacity) {
+        this.youngCapacity = youngCapacity;
+        this.oldCapacity = oldCapacity;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // called at the safepoint right before a collection the collector starts on its own; it is taken by the
+    // next collection to begin
+    public void cause(Cause cause) {
+        nextCause = cause;
+    }
+
+    // a full collection that ends with a minor one reports both, the minor nested inside the full
+    public void beginCollection(Kind kind, int youngOccupancy, int oldOccupancy) {
+        Cause cause;
+        if (kind == Kind.REMARK) cause = Cause.CONCURRENT_MARK;
+        else if (current != null) cause = current.kind == Kind.FULL ? Cause.FULL_GC : Cause.PROMOTION_FAILURE;
+        else cause = nextCause != null ? nextCause : Cause.EXPLICIT;
+        nextCause = null;
+        current = new OpenCollection(kind, cause, current, youngOccupancy, oldOccupancy);
+    }
+
+    public void endCollection(int youngOccupancy, int oldOccupancy) {
+        OpenCollection open = current;
+        current = open.parent;
+        CollectionEvent event = new CollectionEvent(open, youngOccupancy, oldOccupancy, youngCapacity, oldCapacity, gcThreads);
+        collections.get(event.kind).incrementAndGet();
+        if (!event.nested) pauses.get(event.kind).record(event.durationNanos);
+        last = event;
+        for (Listener listener : listeners) listener.collectionFinished(event);
+    }
+
+    // records the phase that started at startNanos; phases outside a collection, like a promotion run
+    // on its own, only go into the histograms
+    public void phase(Phase phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        phases.get(phase).record(nanos);
+        if (current != null) current.phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    public void swept(int objects) {
+        objectsSwept.addAndGet(objects);
+        if (current != null) current.swept += objects;
+    }
+
+    public void promoted(int objects) {
+        objectsPromoted.addAndGet(objects);
+        if (current != null) current.promoted += objects;
+    }
+
+    public void compacted(int objects) {
+        objectsCompacted.addAndGet(objects);
+        if (current != null) current.compacted += objects;
+    }
+
+    public void cleared(int references) {
+        referencesCleared.addAndGet(references);
+        if (current != null) current.cleared += references;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    private static final class OpenCollection {
+        final Kind kind;
+        final Cause cause;
+        final OpenCollection parent;
+        final long startNanos = System.nanoTime();
+        final int youngBefore;
+        final int oldBefore;
+        final long[] phaseNanos = new long[Phase.values().length];
+        int swept;
+        int promoted;
+        int compacted;
+        int cleared;
+
+        OpenCollection(Kind kind, Cause cause, OpenCollection parent, int youngBefore, int oldBefore) {
+            this.kind = kind;
+            this.cause = cause;
+            this.parent = parent;
+            this.youngBefore = youngBefore;
+            this.oldBefore = oldBefore;
+        }
+    }
+
+    public static final class CollectionEvent {
+        public final Kind kind;
+        public final Cause cause;
+        // part of an enclosing collection, whose pause includes this one
+        public final boolean nested;
+        public final long startNanos;
+        public final long durationNanos;
+        private final long[] phaseNanos;
+        public final int youngBefore;
+        public final int oldBefore;
+        public final int youngAfter;
+        public final int oldAfter;
+        public final int youngCapacity;
+        public final int oldCapacity;
+        public final int swept;
+        public final int promoted;
+        public final int compacted;
+        public final int cleared;
+        public final int gcThreads;
+
+        private CollectionEvent(OpenCollection open, int youngAfter, int oldAfter, int youngCapacity, int oldCapacity, int gcThreads) {
+            this.kind = open.kind;
+            this.cause = open.cause;
+            this.nested = open.parent != null;
+            this.startNanos = open.startNanos;
+            this.durationNanos = System.nanoTime() - open.startNanos;
+            this.phaseNanos = open.phaseNanos;
+            this.youngBefore = open.youngBefore;
+            this.oldBefore = open.oldBefore;
+            this.youngAfter = youngAfter;
+            this.oldAfter = oldAfter;
+            this.youngCapacity = youngCapacity;
+            this.oldCapacity = oldCapacity;
+            this.swept = open.swept;
+            this.promoted = open.promoted;
+            this.compacted = open.compacted;
+            this.cleared = open.cleared;
+            this.gcThreads = gcThreads;
+        }
+
+        public long phaseNanos(Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s GC %.3f ms (mark %.3f, references %.3f, copy %.3f, sweep %.3f, compact %.3f): young %d->%d/%d, old %d->%d/%d, swept %d, promoted %d, references cleared %d",
+                    kind.name().charAt(0) + kind.name().substring(1).toLowerCase(), durationNanos / 1e6, phaseNanos(Phase.MARK) / 1e6,
+                    phaseNanos(Phase.REFERENCE) / 1e6, phaseNanos(Phase.COPY) / 1e6, phaseNanos(Phase.SWEEP) / 1e6, phaseNanos(Phase.COMPACT) / 1e6,
+                    youngBefore, youngAfter, youngCapacity, oldBefore, oldAfter, oldCapacity, swept, promoted, cleared);
+        }
+    }
+
+    public static final class Snapshot {
+        public final long objectsSwept;
+        public final long objectsPromoted;
+        public final long objectsCompacted;
+        public final long referencesCleared;
+        // the most recent collection, null before the first one
+        public final CollectionEvent lastCollection;
+        private final Map<Kind, Long> collections = new EnumMap<>(Kind.class);
+        private final Map<Kind, LatencyHistogram> pauses = new EnumMap<>(Kind.class);
+        private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+
+        private Snapshot(GcMetrics metrics) {
+            this.objectsSwept = metrics.objectsSwept.get();
+            this.objectsPromoted = metrics.objectsPromoted.get();
+            this.objectsCompacted = metrics.objectsCompacted.get();
+            this.referencesCleared = metrics.referencesCleared.get();
+            this.lastCollection = metrics.last;
+            metrics.collections.forEach((kind, count) -> collections.put(kind, count.get()));
+            metrics.pauses.forEach((kind, histogram) -> pauses.put(kind, histogram.copy()));
+            metrics.phases.forEach((phase, histogram) -> phases.put(phase, histogram.copy()));
+        }
+
+        // nested collections included
+        public long collections(Kind kind) {
+            return collections.get(kind);
+        }
+
+        // the pauses of the collections that were not nested in another one
+        public LatencyHistogram pauses(Kind kind) {
+            return pauses.get(kind);
+        }
+
+        public LatencyHistogram phase(Phase phase) {
+            return phases.get(phase);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Collections: %d minor, %d mixed, %d full; objects swept %d, promoted %d, compacted %d; references cleared %d%n",
+                    collections(Kind.MINOR), collections(Kind.MIXED), collections(Kind.FULL), objectsSwept, objectsPromoted, objectsCompacted,
+                    referencesCleared));
+            sb.append("Minor GC pauses: ").append(pauses(Kind.MINOR)).append('\n');
+            if (collections(Kind.MIXED) > 0) sb.append("Mixed GC pauses: ").append(pauses(Kind.MIXED)).append('\n');
+            sb.append("Full GC pauses: ").append(pauses(Kind.FULL));
+            if (collections(Kind.REMARK) > 0) sb.append("\nRemark pauses: ").append(pauses(Kind.REMARK));
+            // a collector that never runs a phase, like a standalone compaction, leaves it out
+            for (Phase phase : Phase.values()) {
+                if (phase(phase).getCount() == 0) continue;
+                sb.append('\n').append(phase.name().charAt(0)).append(phase.name().substring(1).toLowerCase())
+                        .append(" phase: ").append(phase(phase));
+            }
+            return sb.toString();
+        }
+    }
+}
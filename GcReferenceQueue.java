@@ -0,0 +1,22 @@
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// where a collection posts the soft, weak and phantom references it cleared, like java.lang.ref.ReferenceQueue.
+// Mutators poll it or wait on it to drop whatever they kept for a referent that is gone
+public class GcReferenceQueue {
+    private final LinkedBlockingQueue<GCObject> cleared = new LinkedBlockingQueue<>();
+
+    void enqueue(GCObject reference) {
+        cleared.add(reference);
+    }
+
+    // the next cleared reference object, null if there is none
+    public GCObject poll() {
+        return cleared.poll();
+    }
+
+    // waits up to timeoutMillis for a cleared reference object, null if none came
+    public GCObject remove(long timeoutMillis) throws InterruptedException {
+        return cleared.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// self-checking runs next to the benchmarks: instead of timing the collectors they check what every collection
+// has to guarantee, on seeded runs so that a failure repeats. One line per run, and exit status 1 if any failed
+//
+// java GcSelfCheck [--check=snapshot,invariant,counts] [--collector=serial,parallel,copying,region]
+//                  [--heap=object,array] [--sweep=eager,lazy] [--seed=1]
+public class GcSelfCheck {
+    // the run from the README: Main 20000 <mode> 1000 4000 10 3
+    private static final int OBJECTS = 20_000;
+    private static final int YOUNG = 1000;
+    private static final int OLD = 4000;
+    private static final int ROOTS = 10;
+    private static final int THRESHOLD = 3;
+    // with random references nearly everything stays reachable, and the region collector, which does not grow
+    // its heap, runs out of regions well before OBJECTS
+    private static final int INVARIANT_OBJECTS = 5000;
+    private static final int PARALLEL_THREADS = 2;
+    // the seeded run takes 19 minor and 4 full collections with either collector; one that misjudges how much
+    // of the old generation is live collects it hundreds of times
+    private static final int MAX_MINOR = 30;
+    private static final int MAX_FULL = 8;
+
+    private final String[] args;
+    private final long seed;
+    private int failed = 0;
+
+    private GcSelfCheck(String[] args) {
+        this.args = args;
+        this.seed = Long.parseLong(option("seed", "1"));
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        // must happen before the first collector is created, see Main
+        if (System.getProperty("gc.log") == null) System.setProperty("gc.log", "off");
+
+        GcSelfCheck check = new GcSelfCheck(args);
+        for (String name : check.list("check", "snapshot,invariant,counts")) {
+            switch (name) {
+                case "snapshot":  check.snapshot(); break;
+                case "invariant": check.invariant(); break;
+                case "counts":    check.counts(); break;
+                default: throw new IllegalArgumentException("Invalid check: '" + name + "' (valid: snapshot, invariant, counts)");
+            }
+        }
+        if (check.failed > 0) {
+            System.out.println(check.failed + " check(s) failed");
+            System.exit(1);
+        }
+    }
+
+    // a snapshot written and read back equals the one captured, and so does one captured from a fresh
+    // collector of the same sizes it was restored into
+    private void snapshot() throws IOException {
+        for (Config config : configs(true)) {
+            String failure;
+            try (GarbageCollector collector = config.create(YOUNG, OLD, ROOTS)) {
+                collector.setSeed(seed);
+                for (int i = 1; i <= OBJECTS; i++) collector.allocateYoung(new GCObject("Obj" + i));
+                HeapSnapshot captured = collector.snapshot();
+                Path file = Files.createTempFile("gc-self-check", ".bin");
+                try {
+                    captured.write(file);
+                    failure = captured.equals(HeapSnapshot.read(file)) ? null : "the snapshot read back differs from the one written";
+                } finally {
+                    Files.delete(file);
+                }
+                if (failure == null) {
+                    try (GarbageCollector restored = config.create(captured.youngCapacity(), captured.oldCapacity(), 0)) {
+                        captured.restore(restored);
+                        if (!captured.equals(restored.snapshot())) failure = "the restored heap captures a different snapshot";
+                    }
+                }
+            }
+            report("snapshot", config + " objects=" + OBJECTS, failure);
+        }
+    }
+
+    // checks the heap after every collection of a run with random deletion and of a workload that releases its
+    // objects instead. The workload ends with a full collection, after which no garbage may be left
+    private void invariant() throws InterruptedException {
+        for (Config config : configs(false)) {
+            try (GarbageCollector collector = config.create(YOUNG, OLD, ROOTS)) {
+                HeapChecker checker = new HeapChecker(collector);
+                collector.metrics().addListener(checker);
+                collector.setSeed(seed);
+                for (int i = 1; i <= INVARIANT_OBJECTS; i++) collector.allocateYoung(new GCObject("Obj" + i));
+                report("invariant", config + " objects=" + INVARIANT_OBJECTS + " deletion=random", checker.result());
+            }
+            try (GarbageCollector collector = config.create(YOUNG, OLD, ROOTS)) {
+                HeapChecker checker = new HeapChecker(collector);
+                collector.metrics().addListener(checker);
+                collector.setRandomDeletion(false);
+                new WorkloadDriver(collector, 1, false, OBJECTS, 0, 0.1, 0.05, LifetimeDistribution.parse("exp:200"),
+                        GraphTopology.parse("random"), seed).run();
+                collector.fullGC();
+                String failure = checker.result();
+                if (failure == null) failure = checker.unreachableLive();
+                report("invariant", config + " objects=" + OBJECTS + " lifetime=exp:200", failure);
+            }
+        }
+    }
+
+    // the seeded run only fits the serial and parallel collectors, whose size policy grows the generations
+    private void counts() {
+        for (Config config : configs(true)) {
+            try (GarbageCollector collector = config.create(YOUNG, OLD, ROOTS)) {
+                collector.setSeed(seed);
+                for (int i = 1; i <= OBJECTS; i++) collector.allocateYoung(new GCObject("Obj" + i));
+                GcMetrics.Snapshot metrics = collector.metrics().snapshot();
+                long minor = metrics.collections(GcMetrics.Kind.MINOR);
+                long full = metrics.collections(GcMetrics.Kind.FULL);
+                String failure = minor <= MAX_MINOR && full >= 1 && full <= MAX_FULL ? null
+                        : minor + " minor and " + full + " full collections, expected at most " + MAX_MINOR + " and 1 to " + MAX_FULL;
+                report("counts", config + " objects=" + OBJECTS, failure);
+            }
+        }
+    }
+
+    // run after every collection but the ones nested in another, at the safepoint that collection holds.
+    // Objects released since the last marking may still be reachable, so only live objects are traced through
+    private static final class HeapChecker implements GcMetrics.Listener {
+        private final GarbageCollector collector;
+        private final HeapStorage storage;
+        private int collections = 0;
+        private String failure;
+
+        HeapChecker(GarbageCollector collector) {
+            this.collector = collector;
+            this.storage = collector.storage();
+        }
+
+        public void collectionFinished(GcMetrics.CollectionEvent event) {
+            if (event.nested || failure != null) return;
+            collections++;
+            String problem = danglingSlot();
+            if (problem != null) failure = "after " + event.kind + " collection " + collections + ": " + problem;
+        }
+
+        // no live object sits in a freed slot or references one, and no root was reclaimed
+        private String danglingSlot() {
+            for (int slot = 0, size = storage.size(); slot < size; slot++) {
+                if (!collector.isLive(slot)) continue;
+                if (storage.id(slot) == null) return "live slot " + slot + " was freed";
+                for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+                    int target = storage.reference(slot, i);
+                    if (storage.id(target) == null) return storage.id(slot) + " in slot " + slot + " references freed slot " + target;
+                }
+            }
+            for (GCObject root : collector.rootObjects()) {
+                if (root.isReclaimed()) return "root in slot " + root.slot + " was reclaimed";
+            }
+            return null;
+        }
+
+        // every live object is reachable from the roots, as it is right after a full collection
+        String unreachableLive() {
+            BitSet reached = new BitSet(storage.size());
+            ArrayDeque<Integer> pending = new ArrayDeque<>();
+            for (GCObject root : collector.rootObjects()) {
+                if (collector.isLive(root.slot) && !reached.get(root.slot)) {
+                    reached.set(root.slot);
+                    pending.add(root.slot);
+                }
+            }
+            while (!pending.isEmpty()) {
+                int slot = pending.poll();
+                for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+                    int target = storage.reference(slot, i);
+                    if (collector.isLive(target) && !reached.get(target)) {
+                        reached.set(target);
+                        pending.add(target);
+                    }
+                }
+            }
+            for (int slot = 0, size = storage.size(); slot < size; slot++) {
+                if (collector.isLive(slot) && !reached.get(slot)) {
+                    return "after the final full collection " + storage.id(slot) + " in slot " + slot + " is live but unreachable";
+                }
+            }
+            return null;
+        }
+
+        String result() {
+            return collections == 0 ? "no collection ran" : failure;
+        }
+    }
+
+    private void report(String check, String params, String failure) {
+        if (failure != null) failed++;
+        System.out.printf("%-10s %-60s %s%n", check, params, failure == null ? "ok" : "FAILED: " + failure);
+    }
+
+    private static final class Config {
+        final String collector;
+        final String heap;
+        final boolean lazySweep;
+
+        Config(String collector, String heap, boolean lazySweep) {
+            this.collector = collector;
+            this.heap = heap;
+            this.lazySweep = lazySweep;
+        }
+
+        GarbageCollector create(int young, int old, int roots) {
+            HeapStorage storage = heap.equals("array")
+                    ? new ArrayHeapStorage(collector.equals("parallel"))
+                    : new ObjectHeapStorage(collector.equals("parallel"));
+            switch (collector) {
+                case "parallel":
+                    ParallelGarbageCollector parallel = new ParallelGarbageCollector(young, old, roots,
+                            GcWorkers.forkJoin(PARALLEL_THREADS), sizePolicy(young, old), storage);
+                    if (lazySweep) parallel.setLazySweeping(true, LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD);
+                    return parallel;
+                case "copying":
+                    return new CopyingGarbageCollector(young, old, roots, THRESHOLD, CopyingGarbageCollector.DEFAULT_SURVIVOR_RATIO, storage);
+                case "region":
+                    return new RegionGarbageCollector(young, old, roots, THRESHOLD, RegionGarbageCollector.defaultRegionSize(young + old),
+                            RegionGarbageCollector.DEFAULT_PAUSE_TARGET_MILLIS, storage);
+                default:
+                    SerialGarbageCollector serial = new SerialGarbageCollector(young, old, roots, sizePolicy(young, old), storage);
+                    if (lazySweep) serial.setLazySweeping(true, LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD);
+                    return serial;
+            }
+        }
+
+        // Main's defaults: the generations may grow to four times their initial size
+        private static AdaptiveSizePolicy sizePolicy(int young, int old) {
+            return new AdaptiveSizePolicy(young, young * AdaptiveSizePolicy.DEFAULT_MAX_SIZE_RATIO, old,
+                    old * AdaptiveSizePolicy.DEFAULT_MAX_SIZE_RATIO, THRESHOLD, AdaptiveSizePolicy.DEFAULT_PAUSE_GOAL_MILLIS);
+        }
+
+        @Override
+        public String toString() {
+            return "collector=" + collector + (lazySweep ? " sweep=lazy" : "") + " heap=" + heap;
+        }
+    }
+
+    // snapshots and the seeded counts only concern the serial and parallel collectors, and so does lazy sweeping
+    private List<Config> configs(boolean generationalOnly) {
+        List<Config> configs = new ArrayList<>();
+        for (String collector : list("collector", "serial,parallel,copying,region")) {
+            if (!collector.matches("serial|parallel|copying|region")) {
+                throw new IllegalArgumentException("Invalid collector: '" + collector + "' (valid: serial, parallel, copying, region)");
+            }
+            boolean sweeps = collector.equals("serial") || collector.equals("parallel");
+            if (generationalOnly && !sweeps) continue;
+            for (String heap : list("heap", "object")) {
+                if (!heap.equals("object") && !heap.equals("array")) {
+                    throw new IllegalArgumentException("Invalid heap: '" + heap + "' (valid: object, array)");
+                }
+                for (String sweep : list("sweep", "eager,lazy")) {
+                    if (!sweep.equals("eager") && !sweep.equals("lazy")) {
+                        throw new IllegalArgumentException("Invalid sweep: '" + sweep + "' (valid: eager, lazy)");
+                    }
+                    if (sweep.equals("lazy") && !sweeps) continue;
+                    configs.add(new Config(collector, heap, sweep.equals("lazy")));
+                }
+            }
+        }
+        return configs;
+    }
+
+    private String option(String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+
+    private String[] list(String name, String defaultValue) {
+        return option(name, defaultValue).split(",");
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+// the GC threads of the parallel collector. Every parallel phase is a gang task: each of the parallelism()
+// workers runs it once with its own worker index, and run returns once they all have, so the phases of a
+// collection hand over to each other at a barrier. The calling thread always runs worker 0 itself, so a
+// single worker never waits for a handoff
+public interface GcWorkers {
+    int parallelism();
+
+    // runs task(worker) for every worker in [0, parallelism()), rethrowing the first failure
+    void run(IntConsumer task);
+
+    void shutdown();
+
+    // runs body(i) for every i in [0, count), the workers claiming indices from a shared cursor so that
+    // uneven items balance out. A single item or worker is run by the calling thread
+    default void forEach(int count, IntConsumer body) {
+        if (count == 1 || parallelism() == 1) {
+            for (int i = 0; i < count; i++) body.accept(i);
+            return;
+        }
+        AtomicInteger cursor = new AtomicInteger();
+        run(worker -> {
+            int i;
+            while ((i = cursor.getAndIncrement()) < count) body.accept(i);
+        });
+    }
+
+    // forkjoin: tasks on a dedicated ForkJoinPool; gang: persistent threads that spin, then park between phases;
+    // virtual: a virtual thread per worker and phase
+    static GcWorkers create(String strategy, int threads) {
+        switch (strategy) {
+            case "forkjoin": return forkJoin(threads);
+            case "gang":     return new WorkGang(threads);
+            case "virtual":  return virtualThreads(threads);
+            default: throw new IllegalArgumentException("Invalid GC workers: '" + strategy + "' (valid: forkjoin, gang, virtual)");
+        }
+    }
+
+    // the calling thread alone, for the serial collector's phases
+    static GcWorkers serial() {
+        return new GcWorkers() {
+            @Override
+            public int parallelism() {
+                return 1;
+            }
+
+            @Override
+            public void run(IntConsumer task) {
+                task.accept(0);
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
+
+    static GcWorkers forkJoin(int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        return new GcWorkers() {
+            @Override
+            public int parallelism() {
+                return threads;
+            }
+
+            @Override
+            public void run(IntConsumer task) {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(threads - 1);
+                for (int i = 1; i < threads; i++) {
+                    int worker = i;
+                    tasks.add(pool.submit(() -> task.accept(worker)));
+                }
+                try {
+                    task.accept(0);
+                } finally {
+                    for (ForkJoinTask<?> forked : tasks) forked.join();
+                }
+            }
+
+            @Override
+            public void shutdown() {
+                pool.shutdown();
+                try {
+                    if (!pool.awaitTermination(30, TimeUnit.SECONDS)) {
+                        pool.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    // starting a virtual thread is cheap enough to do per phase. Before Java 21 they are platform threads
+    static GcWorkers virtualThreads(int threads) {
+        ThreadFactory factory = WorkloadDriver.virtualThreadFactory();
+        return new GcWorkers() {
+            @Override
+            public int parallelism() {
+                return threads;
+            }
+
+            @Override
+            public void run(IntConsumer task) {
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                Thread[] started = new Thread[threads - 1];
+                for (int i = 1; i < threads; i++) {
+                    int worker = i;
+                    started[i - 1] = factory.newThread(() -> {
+                        try {
+                            task.accept(worker);
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    });
+                    started[i - 1].start();
+                }
+                try {
+                    task.accept(0);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                // a phase cannot be abandoned halfway, so an interrupt only shows once every worker is done
+                boolean interrupted = false;
+                for (Thread thread : started) {
+                    while (thread.isAlive()) {
+                        try {
+                            thread.join();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+                if (failure.get() != null) throw new IllegalStateException("GC worker failed", failure.get());
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
+}
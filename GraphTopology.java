@@ -0,0 +1,208 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// the object graph a mutator builds out of what it allocates, on top of the reference every collector adds
+// to a new object from a random existing one. Each mutator wires its own graph through the collector's
+// mutator entry points and draws from its own generator, so a seeded run builds the same graph again
+public interface GraphTopology {
+    // the graph of one mutator, handed each object it allocates
+    interface Graph {
+        void add(GCObject object);
+    }
+
+    Graph newGraph(GarbageCollector collector, SplittableRandom random);
+
+    // nothing but the collectors' random references
+    static GraphTopology random() {
+        return (collector, random) -> object -> { };
+    }
+
+    // each object references the next one allocated
+    static GraphTopology list() {
+        return (collector, random) -> new Graph() {
+            private GCObject last;
+
+            public void add(GCObject object) {
+                if (last != null) collector.addReference(last, object);
+                last = object;
+            }
+        };
+    }
+
+    // a complete tree filled breadth first, every object referencing the next fanout ones below it
+    static GraphTopology tree(int fanout) {
+        if (fanout < 1) throw new IllegalArgumentException("fanout must be >= 1 (got " + fanout + ")");
+        return (collector, random) -> new Graph() {
+            // objects that still have room for children, the next parent first
+            private final Deque<GCObject> parents = new ArrayDeque<>();
+            private int children = 0;
+
+            public void add(GCObject object) {
+                if (!parents.isEmpty()) {
+                    collector.addReference(parents.peek(), object);
+                    if (++children == fanout) {
+                        parents.poll();
+                        children = 0;
+                    }
+                }
+                parents.add(object);
+            }
+        };
+    }
+
+    // rings of length objects, each referencing the next and the last one closing the ring
+    static GraphTopology cycles(int length) {
+        if (length < 1) throw new IllegalArgumentException("length must be >= 1 (got " + length + ")");
+        return (collector, random) -> new Graph() {
+            private GCObject first;
+            private GCObject last;
+            private int size = 0;
+
+            public void add(GCObject object) {
+                if (size == 0) first = object;
+                else collector.addReference(last, object);
+                last = object;
+                if (++size == length) {
+                    collector.addReference(last, first);
+                    size = 0;
+                }
+            }
+        };
+    }
+
+    // preferential attachment: each object is referenced by referrers objects picked in proportion to how
+    // many references they already hold, which gives fan-out a power-law distribution with a few hubs.
+    // The pick draws from a pool holding every object once plus once per reference it holds; once the
+    // pool is full, new entries overwrite random ones, which keeps the proportions among recent objects
+    static GraphTopology powerLaw(int referrers) {
+        if (referrers < 1) throw new IllegalArgumentException("referrers must be >= 1 (got " + referrers + ")");
+        return (collector, random) -> new Graph() {
+            private final GCObject[] pool = new GCObject[1 << 16];
+            private int size = 0;
+
+            public void add(GCObject object) {
+                for (int i = 0; i < referrers && size > 0; i++) {
+                    GCObject referrer = pool[random.nextInt(size)];
+                    collector.addReference(referrer, object);
+                    enter(referrer);
+                }
+                enter(object);
+            }
+
+            private void enter(GCObject object) {
+                pool[size < pool.length ? size++ : random.nextInt(pool.length)] = object;
+            }
+        };
+    }
+
+    // a cache object referencing up to capacity entries, each new object inserted as one. A hit on a recent
+    // entry, with a chance of hitRatio per allocation, makes it the most recently used; inserting into a
+    // full cache evicts the least recently used entry, drops its reference and releases it
+    static GraphTopology cache(int capacity, double hitRatio) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1 (got " + capacity + ")");
+        if (hitRatio < 0 || hitRatio > 1) throw new IllegalArgumentException("hitRatio must be between 0 and 1 (got " + hitRatio + ")");
+        return (collector, random) -> new Graph() {
+            private final GCObject cache = new GCObject("Cache");
+            private final Map<GCObject, GCObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+            // the entries inserted last, some of them evicted since
+            private final GCObject[] recent = new GCObject[capacity];
+            private int inserted = 0;
+
+            {
+                collector.allocateYoung(cache);
+            }
+
+            public void add(GCObject object) {
+                if (inserted > 0 && random.nextDouble() < hitRatio) {
+                    entries.get(recent[random.nextInt(Math.min(inserted, capacity))]);
+                }
+                collector.addReference(cache, object);
+                entries.put(object, object);
+                recent[inserted++ % capacity] = object;
+                if (entries.size() > capacity) {
+                    GCObject evicted = entries.keySet().iterator().next();
+                    entries.remove(evicted);
+                    collector.removeReference(cache, evicted);
+                    collector.release(evicted);
+                }
+            }
+        };
+    }
+
+    // a canonicalizing map in the style of WeakHashMap: a map object referencing one reference object per entry,
+    // each new object inserted as the referent of a soft, weak or phantom reference. Every insertion first
+    // expunges the entries the collector cleared, dropping and releasing their reference objects, and with a
+    // chance of hitRatio gets the referent of a recent entry, which counts as using a soft reference
+    static GraphTopology references(ReferenceProcessor.Type type, double hitRatio) {
+        if (hitRatio < 0 || hitRatio > 1) throw new IllegalArgumentException("hitRatio must be between 0 and 1 (got " + hitRatio + ")");
+        return (collector, random) -> new Graph() {
+            private final GCObject map = new GCObject("RefMap");
+            private final GcReferenceQueue queue = new GcReferenceQueue();
+            // the 64 reference objects inserted last, some of them cleared since
+            private final GCObject[] recent = new GCObject[64];
+            private int inserted = 0;
+
+            {
+                collector.allocateYoung(map);
+            }
+
+            public void add(GCObject object) {
+                GCObject stale;
+                while ((stale = queue.poll()) != null) {
+                    collector.removeReference(map, stale);
+                    collector.release(stale);
+                }
+                if (inserted > 0 && random.nextDouble() < hitRatio) {
+                    collector.getReferent(recent[random.nextInt(Math.min(inserted, recent.length))]);
+                }
+                GCObject reference = new GCObject("Ref");
+                collector.allocateYoung(reference);
+                collector.addReference(map, reference);
+                collector.setReferent(reference, object, type, queue);
+                recent[inserted++ % recent.length] = reference;
+            }
+        };
+    }
+
+    // random | list | tree:<fanout> | cycles:<length> | powerlaw:<referrers> | cache:<capacity>:<hitRatio>
+    // | refs:<soft|weak|phantom>:<hitRatio>
+    static GraphTopology parse(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "random":
+                    if (parts.length == 1) return random();
+                    break;
+                case "list":
+                    if (parts.length == 1) return list();
+                    break;
+                case "tree":
+                    if (parts.length == 2) return tree(Integer.parseInt(parts[1]));
+                    break;
+                case "cycles":
+                    if (parts.length == 2) return cycles(Integer.parseInt(parts[1]));
+                    break;
+                case "powerlaw":
+                    if (parts.length == 2) return powerLaw(Integer.parseInt(parts[1]));
+                    break;
+                case "cache":
+                    if (parts.length == 3) return cache(Integer.parseInt(parts[1]), Double.parseDouble(parts[2]));
+                    break;
+                case "refs":
+                    if (parts.length != 3) break;
+                    for (ReferenceProcessor.Type type : ReferenceProcessor.Type.values()) {
+                        if (type.name().equalsIgnoreCase(parts[1])) return references(type, Double.parseDouble(parts[2]));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid topology: '" + spec + "'", e);
+        }
+        throw new IllegalArgumentException("Invalid topology: '" + spec + "' (valid: random, list, tree:<fanout>, cycles:<length>, powerlaw:<referrers>, cache:<capacity>:<hitRatio>, refs:<soft|weak|phantom>:<hitRatio>)");
+    }
+}
@@ -0,0 +1,117 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// one bit per storage slot. Slots are reused once swept, so a bitmap, and the cost of fill and count, grows with
+// the most objects alive at once rather than with everything ever allocated
+public class HeapBitmap {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private long[] words;
+
+    public HeapBitmap(int bits) {
+        words = new long[wordsFor(bits)];
+    }
+
+    private static int wordsFor(int bits) {
+        return Math.max(1, (bits + 63) >>> 6);
+    }
+
+    // only called while no collection is running, so readers never see the array being replaced
+    public void ensureCapacity(int bits) {
+        int needed = wordsFor(bits);
+        if (needed > words.length) {
+            words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+        }
+    }
+
+    public int capacity() {
+        return words.length << 6;
+    }
+
+    public boolean get(int bit) {
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public void set(int bit) {
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    public void clear(int bit) {
+        words[bit >>> 6] &= ~(1L << bit);
+    }
+
+    public void put(int bit, boolean value) {
+        if (value) set(bit);
+        else clear(bit);
+    }
+
+    public void clearAll() {
+        Arrays.fill(words, 0L);
+    }
+
+    // sets every bit to whenClear where the selector's bit is clear and to whenSet where it is set
+    public void fill(HeapBitmap selector, boolean whenClear, boolean whenSet) {
+        long clearFill = whenClear ? -1L : 0L;
+        long setFill = whenSet ? -1L : 0L;
+        for (int i = 0; i < words.length; i++) {
+            long select = i < selector.words.length ? selector.words[i] : 0L;
+            words[i] = (~select & clearFill) | (select & setFill);
+        }
+    }
+
+    // how many bits have value here and are set in every selector
+    public int count(boolean value, HeapBitmap... selectors) {
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = value ? words[i] : ~words[i];
+            for (HeapBitmap selector : selectors) word &= i < selector.words.length ? selector.words[i] : 0L;
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // atomic variants for bitmaps shared by several GC threads; neighbouring bits live in the same word
+
+    public boolean trySetAtomic(int bit) {
+        int index = bit >>> 6;
+        long mask = 1L << bit;
+        long word = (long) WORDS.getVolatile(words, index);
+        while ((word & mask) == 0) {
+            long witness = (long) WORDS.compareAndExchange(words, index, word, word | mask);
+            if (witness == word) return true;
+            word = witness;
+        }
+        return false;
+    }
+
+    public boolean tryClearAtomic(int bit) {
+        int index = bit >>> 6;
+        long mask = 1L << bit;
+        long word = (long) WORDS.getVolatile(words, index);
+        while ((word & mask) != 0) {
+            long witness = (long) WORDS.compareAndExchange(words, index, word, word & ~mask);
+            if (witness == word) return true;
+            word = witness;
+        }
+        return false;
+    }
+
+    // changes the bit to value, returning false if it already had that value
+    public boolean tryPutAtomic(int bit, boolean value) {
+        return value ? trySetAtomic(bit) : tryClearAtomic(bit);
+    }
+
+    public void putAtomic(int bit, boolean value) {
+        if (value) setAtomic(bit);
+        else clearAtomic(bit);
+    }
+
+    public void setAtomic(int bit) {
+        WORDS.getAndBitwiseOr(words, bit >>> 6, 1L << bit);
+    }
+
+    public void clearAtomic(int bit) {
+        WORDS.getAndBitwiseAnd(words, bit >>> 6, ~(1L << bit));
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// one fixed-size region of the region collector's heap. Objects are bump-allocated into it, and a region
+// only changes its type once it has been emptied and handed out again
+public class HeapRegion {
+    public enum Type { FREE, EDEN, SURVIVOR, OLD }
+
+    final int index;
+    final GCObject[] objects;
+    int top = 0;
+    Type type = Type.FREE;
+    // objects the last marking found live, only meaningful for old regions
+    int live = 0;
+    // slots of old objects in other regions that reference an object in this one. Entries go stale when
+    // those objects move or die, so they are checked when the set is scanned instead of removed eagerly
+    final Set<Integer> rememberedSet = new HashSet<>();
+
+    HeapRegion(int index, int size) {
+        this.index = index;
+        this.objects = new GCObject[size];
+    }
+
+    boolean isFull() {
+        return top == objects.length;
+    }
+
+    boolean isYoung() {
+        return type == Type.EDEN || type == Type.SURVIVOR;
+    }
+
+    void add(GCObject object) {
+        objects[top++] = object;
+    }
+
+    // mixed collections evacuate the old regions with the most garbage first
+    int garbage() {
+        return top - live;
+    }
+
+    void free() {
+        Arrays.fill(objects, 0, top, null);
+        top = 0;
+        live = 0;
+        type = Type.FREE;
+        rememberedSet.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "Region " + index + " (" + type + ", " + top + "/" + objects.length + ")";
+    }
+}
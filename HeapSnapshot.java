@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// the live objects of a heap, young ones first and each generation in heap order, with their ids, ages,
+// references and which of them are roots. Written to and read from a compact binary file through memory
+// mapping, so a heap captured once can be restored into fresh collectors any number of times.
+//
+// File layout, every number an unsigned LEB128 varint:
+//   magic (4 bytes) youngCapacity oldCapacity youngCount oldCount rootCount root...
+//   then per object: idLength id(UTF-8) age referenceCount reference...
+// where each reference is the zigzag-encoded distance from the object's own index to the target's
+public class HeapSnapshot {
+    private static final int MAGIC = 0x47435331;
+    private static final int MAX_VARINT_BYTES = 5;
+    // files are mapped in windows of this size, so a snapshot is not limited to one 2 GB mapping
+    private static final long WINDOW = 1 << 26;
+
+    private final int youngCapacity;
+    private final int oldCapacity;
+    private final int youngCount;
+    private final String[] ids;
+    private final int[] ages;
+    // CSR layout: the references of object i are references[referenceStart[i] .. referenceStart[i + 1])
+    private final int[] referenceStart;
+    private final int[] references;
+    private final int[] roots;
+
+    private HeapSnapshot(int youngCapacity, int oldCapacity, int youngCount, String[] ids, int[] ages,
+                         int[] referenceStart, int[] references, int[] roots) {
+        this.youngCapacity = youngCapacity;
+        this.oldCapacity = oldCapacity;
+        this.youngCount = youngCount;
+        this.ids = ids;
+        this.ages = ages;
+        this.referenceStart = referenceStart;
+        this.references = references;
+        this.roots = roots;
+    }
+
+    // called by a collector with its heap standing still; null and dead entries are left out, and so are
+    // references to them
+    static HeapSnapshot capture(HeapStorage storage, GCObject[] young, int youngLimit, GCObject[] old, int oldLimit,
+                                List<GCObject> rootObjects, IntPredicate live) {
+        int[] index = new int[storage.size()];
+        Arrays.fill(index, -1);
+        int[] slots = new int[youngLimit + oldLimit];
+        int count = 0;
+        for (int i = 0; i < youngLimit; i++) {
+            if (young[i] != null && live.test(young[i].slot)) slots[count++] = young[i].slot;
+        }
+        int youngCount = count;
+        for (int i = 0; i < oldLimit; i++) {
+            if (old[i] != null && live.test(old[i].slot)) slots[count++] = old[i].slot;
+        }
+        for (int i = 0; i < count; i++) index[slots[i]] = i;
+
+        String[] ids = new String[count];
+        int[] ages = new int[count];
+        int[] referenceStart = new int[count + 1];
+        ReferenceList references = new ReferenceList();
+        for (int i = 0; i < count; i++) {
+            int slot = slots[i];
+            ids[i] = storage.id(slot);
+            ages[i] = storage.age(slot);
+            for (int r = 0, refs = storage.referenceCount(slot); r < refs; r++) {
+                int target = index[storage.reference(slot, r)];
+                if (target >= 0) references.add(target);
+            }
+            referenceStart[i + 1] = references.size();
+        }
+        int[] roots = rootObjects.stream().mapToInt(root -> index[root.slot]).filter(i -> i >= 0).toArray();
+        return new HeapSnapshot(young.length, old.length, youngCount, ids, ages, referenceStart, references.toArray(), roots);
+    }
+
+    public int youngCapacity() {
+        return youngCapacity;
+    }
+
+    public int oldCapacity() {
+        return oldCapacity;
+    }
+
+    public int youngCount() {
+        return youngCount;
+    }
+
+    public int objectCount() {
+        return ids.length;
+    }
+
+    // places every object into the generation it was captured in, then stores the references through the
+    // collector, whose write barrier remembers the old objects that reference young ones. It all happens in
+    // one safepoint operation, which the collector's own safepoint operations and mutator entries join
+    public void restore(GarbageCollector collector) {
+        boolean[] root = new boolean[ids.length];
+        for (int r : roots) root[r] = true;
+        GCObject[] objects = new GCObject[ids.length];
+        collector.safepoint().run(() -> {
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = new GCObject(ids[i]);
+                collector.restore(objects[i], i >= youngCount, root[i]);
+                objects[i].setAge(ages[i]);
+            }
+            for (int i = 0; i < objects.length; i++) {
+                for (int r = referenceStart[i]; r < referenceStart[i + 1]; r++) {
+                    collector.addReference(objects[i], objects[references[r]]);
+                }
+            }
+        });
+    }
+
+    // the same objects with the same ids, ages, references and roots, captured from generations of the same sizes
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HeapSnapshot)) return false;
+        HeapSnapshot that = (HeapSnapshot) o;
+        return youngCapacity == that.youngCapacity && oldCapacity == that.oldCapacity && youngCount == that.youngCount
+                && Arrays.equals(ids, that.ids) && Arrays.equals(ages, that.ages)
+                && Arrays.equals(referenceStart, that.referenceStart) && Arrays.equals(references, that.references)
+                && Arrays.equals(roots, that.roots);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(ids) + Arrays.hashCode(references);
+    }
+
+    public void write(Path file) throws IOException {
+        byte[][] encodedIds = new byte[ids.length][];
+        long size = 4 + varintSize(youngCapacity) + varintSize(oldCapacity) + varintSize(youngCount)
+                + varintSize(ids.length - youngCount) + varintSize(roots.length);
+        for (int r : roots) size += varintSize(r);
+        for (int i = 0; i < ids.length; i++) {
+            encodedIds[i] = ids[i].getBytes(StandardCharsets.UTF_8);
+            size += varintSize(encodedIds[i].length) + encodedIds[i].length + varintSize(ages[i])
+                    + varintSize(referenceStart[i + 1] - referenceStart[i]);
+            for (int r = referenceStart[i]; r < referenceStart[i + 1]; r++) size += varintSize(zigzag(references[r] - i));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedFile out = new MappedFile(channel, FileChannel.MapMode.READ_WRITE, size);
+            out.window(4).putInt(MAGIC);
+            out.putVarint(youngCapacity);
+            out.putVarint(oldCapacity);
+            out.putVarint(youngCount);
+            out.putVarint(ids.length - youngCount);
+            out.putVarint(roots.length);
+            for (int r : roots) out.putVarint(r);
+            for (int i = 0; i < ids.length; i++) {
+                out.putVarint(encodedIds[i].length);
+                out.window(encodedIds[i].length).put(encodedIds[i]);
+                out.putVarint(ages[i]);
+                out.putVarint(referenceStart[i + 1] - referenceStart[i]);
+                for (int r = referenceStart[i]; r < referenceStart[i + 1]; r++) out.putVarint(zigzag(references[r] - i));
+            }
+            out.force();
+        }
+    }
+
+    public static HeapSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedFile in = new MappedFile(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+            if (in.window(4).getInt() != MAGIC) throw new IOException(file + " is not a heap snapshot");
+            int youngCapacity = in.getVarint();
+            int oldCapacity = in.getVarint();
+            int youngCount = in.getVarint();
+            int count = youngCount + in.getVarint();
+            int[] roots = new int[in.getVarint()];
+            for (int i = 0; i < roots.length; i++) roots[i] = checkIndex(in.getVarint(), count);
+            String[] ids = new String[count];
+            int[] ages = new int[count];
+            int[] referenceStart = new int[count + 1];
+            ReferenceList references = new ReferenceList();
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[in.getVarint()];
+                in.window(id.length).get(id);
+                ids[i] = new String(id, StandardCharsets.UTF_8);
+                ages[i] = in.getVarint();
+                for (int r = 0, refs = in.getVarint(); r < refs; r++) {
+                    references.add(checkIndex(i + unzigzag(in.getVarint()), count));
+                }
+                referenceStart[i + 1] = references.size();
+            }
+            return new HeapSnapshot(youngCapacity, oldCapacity, youngCount, ids, ages, referenceStart, references.toArray(), roots);
+        }
+    }
+
+    private static int checkIndex(int index, int count) throws IOException {
+        if (index < 0 || index >= count) throw new IOException("Corrupt heap snapshot: object index " + index + " out of " + count);
+        return index;
+    }
+
+    static int varintSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // sequential access to a file through mapped windows, the next one mapped where the current one runs out
+    private static final class MappedFile {
+        private final FileChannel channel;
+        private final FileChannel.MapMode mode;
+        private final long size;
+        private long windowStart = 0;
+        private MappedByteBuffer buffer;
+
+        MappedFile(FileChannel channel, FileChannel.MapMode mode, long size) {
+            this.channel = channel;
+            this.mode = mode;
+            this.size = size;
+        }
+
+        // the current window, remapped first if fewer than bytes are left in it
+        ByteBuffer window(int bytes) throws IOException {
+            if (buffer == null || buffer.remaining() < bytes) {
+                long position = buffer == null ? 0 : windowStart + buffer.position();
+                long length = Math.min(Math.max(WINDOW, bytes), size - position);
+                if (length < bytes) throw new IOException("Heap snapshot is truncated at byte " + position);
+                if (buffer != null && mode == FileChannel.MapMode.READ_WRITE) buffer.force();
+                buffer = channel.map(mode, position, length);
+                windowStart = position;
+            }
+            return buffer;
+        }
+
+        void putVarint(int value) throws IOException {
+            ByteBuffer out = window(varintSize(value));
+            while ((value & ~0x7F) != 0) {
+                out.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        int getVarint() throws IOException {
+            long left = size - windowStart - (buffer == null ? 0 : buffer.position());
+            ByteBuffer in = window((int) Math.min(MAX_VARINT_BYTES, Math.max(1, left)));
+            int value = 0;
+            for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Corrupt heap snapshot: varint longer than " + MAX_VARINT_BYTES + " bytes");
+        }
+
+        void force() {
+            if (buffer != null) buffer.force();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.function.IntPredicate;
+
+// backing store for simulated objects, addressed by slot; GCObject is only a view over one slot
+public interface HeapStorage {
+
+    // returns the new object's slot: the slot freed last if there is one, otherwise a new one past the others
+    int allocate(String id);
+
+    // one past the highest slot ever handed out; the collectors size their bitmaps and card tables by it
+    int size();
+
+    // a collector frees the slot of an object it swept once nothing live references it any more. The id, age
+    // and references go with it, the slot's generation moves on, and allocate hands the slot out again.
+    // Freeing a free slot does nothing
+    void free(int slot);
+
+    // how often slot was freed; a GCObject whose generation differs outlived its object
+    int generation(int slot);
+
+    String id(int slot);
+
+    int age(int slot);
+
+    void setAge(int slot, int age);
+
+    int referenceCount(int slot);
+
+    int reference(int slot, int index);
+
+    // every stored reference is reported to the write barrier, whichever path stored it
+    void addReference(int from, int to);
+
+    void setWriteBarrier(WriteBarrier barrier);
+
+    // drops every reference from one slot to the other, reporting the removal to the write barrier first
+    void removeReference(int from, int to);
+
+    // drops every reference of slot whose target does not pass keep
+    void retainReferences(int slot, IntPredicate keep);
+}
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+// the free slots of a non-moving old generation and the sweep that finds them, in the style of CMS: a full
+// collection only marks and then starts a sweep over the slots below the bump pointer, which allocation
+// runs one chunk at a time whenever it finds no free slot. Free slots are bits of a bitmap, handed out
+// lowest first, so the cost of sweeping is spread over the allocations after the collection
+public class LazySweeper {
+    // compact instead once more than this share of the space below the bump pointer is free or garbage
+    public static final double DEFAULT_FRAGMENTATION_THRESHOLD = 0.5;
+    // slots swept per step on the allocation path
+    private static final int CHUNK = 256;
+
+    private long[] free;
+    // no word below this one has a free bit
+    private int firstFree = 0;
+    private int cursor = 0;
+    private int limit = 0;
+
+    public LazySweeper(int capacity) {
+        free = new long[wordsFor(capacity)];
+    }
+
+    private static int wordsFor(int slots) {
+        return Math.max(1, (slots + 63) >>> 6);
+    }
+
+    // follows the old generation when it is resized; it never shrinks below its bump pointer, so no free slot is lost
+    public void ensureCapacity(int capacity) {
+        if (wordsFor(capacity) > free.length) free = Arrays.copyOf(free, wordsFor(capacity));
+    }
+
+    public boolean sweeping() {
+        return cursor < limit;
+    }
+
+    // the slots below limit are swept again, lazily; the ones already free stay free
+    public void start(int limit) {
+        this.cursor = 0;
+        this.limit = limit;
+    }
+
+    // a compaction left no free slots below the bump pointer and nothing to sweep
+    public void reset() {
+        Arrays.fill(free, 0L);
+        firstFree = 0;
+        cursor = 0;
+        limit = 0;
+    }
+
+    public void free(int index) {
+        free[index >>> 6] |= 1L << index;
+        firstFree = Math.min(firstFree, index >>> 6);
+    }
+
+    // takes the lowest free slot, -1 if there is none
+    public int take() {
+        for (int word = firstFree; word < free.length; word++) {
+            if (free[word] != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(free[word]);
+                free[word] &= free[word] - 1;
+                firstFree = word;
+                return index;
+            }
+        }
+        firstFree = free.length;
+        return -1;
+    }
+
+    // sweeps the next chunk, where survives decides like in a compaction; returns how many objects died
+    public int sweep(GCObject[] heap, Predicate<GCObject> survives) {
+        int end = Math.min(cursor + CHUNK, limit);
+        int swept = 0;
+        for (int i = cursor; i < end; i++) {
+            GCObject object = heap[i];
+            if (object != null && !survives.test(object)) {
+                heap[i] = null;
+                free(i);
+                swept++;
+            }
+        }
+        cursor = end;
+        return swept;
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+// how many further allocations of the same mutator an object stays in use for
+public interface LifetimeDistribution {
+    int IMMORTAL = Integer.MAX_VALUE;
+
+    int sample(SplittableRandom random);
+
+    static LifetimeDistribution immortal() {
+        return random -> IMMORTAL;
+    }
+
+    static LifetimeDistribution exponential(double mean) {
+        if (mean <= 0) throw new IllegalArgumentException("mean must be > 0 (got " + mean + ")");
+        return random -> (int) Math.min(IMMORTAL - 1, Math.ceil(-mean * Math.log(1 - random.nextDouble())));
+    }
+
+    // the weak generational hypothesis: most objects die young, the rest live much longer
+    static LifetimeDistribution generational(double shortFraction, double shortMean, double longMean) {
+        if (shortFraction < 0 || shortFraction > 1) {
+            throw new IllegalArgumentException("shortFraction must be between 0 and 1 (got " + shortFraction + ")");
+        }
+        LifetimeDistribution shortLived = exponential(shortMean);
+        LifetimeDistribution longLived = exponential(longMean);
+        return random -> random.nextDouble() < shortFraction ? shortLived.sample(random) : longLived.sample(random);
+    }
+
+    // immortal | exp:<mean> | generational:<shortFraction>:<shortMean>:<longMean>
+    static LifetimeDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "immortal":
+                    if (parts.length == 1) return immortal();
+                    break;
+                case "exp":
+                    if (parts.length == 2) return exponential(Double.parseDouble(parts[1]));
+                    break;
+                case "generational":
+                    if (parts.length == 4) {
+                        return generational(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid lifetime: '" + spec + "'", e);
+        }
+        throw new IllegalArgumentException("Invalid lifetime: '" + spec + "' (valid: immortal, exp:<mean>, generational:<shortFraction>:<shortMean>:<longMean>)");
+    }
+}
@@ -1,10 +1,15 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
 public class Main {
-    private static GarbageCollector getGarbageCollector(String[] args) {
+    // a restored snapshot needs generations at least as large as the ones it was captured from
+    private static GarbageCollector getGarbageCollector(String[] args, HeapSnapshot snapshot) {
 
         if (args == null || args.length < 6) {
             throw new IllegalArgumentException(
-                    "Usage: java Main <objectsQuantity> <mode> <youngSize> <oldSize> <rootCount> <promotionThreshold> [numThreads]\n" +
-                            "  mode: 1=Serial, 2=Parallel"
+                    "Usage: java Main <objectsQuantity> <mode> <youngSize> <oldSize> <rootCount> <promotionThreshold> [numThreads] [--name=value ...]\n" +
+                            "  mode: 1=Serial, 2=Parallel, 3=Copying young generation, 4=Region-based (G1-style)"
             );
         }
 
@@ -15,8 +20,32 @@ public class Main {
         int promotionThreshold = parseNonNegativeInt(args[5], "promotionThreshold");
 
 
-        if (mode != 1 && mode != 2) {
-            throw new IllegalArgumentException("Invalid mode: " + mode + " (valid: 1=Serial, 2=Parallel)");
+        if (mode < 1 || mode > 4) {
+            throw new IllegalArgumentException("Invalid mode: " + mode + " (valid: 1=Serial, 2=Parallel, 3=Copying, 4=Region)");
+        }
+
+        // only the serial and parallel collectors capture and restore snapshots, process soft, weak and phantom
+        // references and sweep lazily
+        if (mode > 2) {
+            for (String name : new String[] {"snapshot-in", "snapshot-out", "sweep", "fragmentation-threshold"}) {
+                if (option(args, name, null) != null) {
+                    throw new IllegalArgumentException("--" + name + " is only supported in mode 1 (Serial) and 2 (Parallel)");
+                }
+            }
+            if (option(args, "topology", "random").startsWith("refs:")) {
+                throw new IllegalArgumentException("--topology=refs:... is only supported in mode 1 (Serial) and 2 (Parallel)");
+            }
+        }
+        // the copying collector's generations never grow, the region heap grows up to both maximums together
+        if (mode == 3) {
+            for (String name : new String[] {"max-young", "max-old"}) {
+                if (option(args, name, null) != null) {
+                    throw new IllegalArgumentException("--" + name + " is only supported in mode 1 (Serial), 2 (Parallel) and 4 (Region)");
+                }
+            }
+        }
+        if (mode != 2 && option(args, "gc-workers", null) != null) {
+            throw new IllegalArgumentException("--gc-workers is only supported in mode 2 (Parallel)");
         }
 
         if (rootCount > oldSize) {
@@ -25,21 +54,98 @@ public class Main {
 
         if (youngSize < 1) throw new IllegalArgumentException("youngSize must be >= 1");
         if (oldSize   < 1) throw new IllegalArgumentException("oldSize must be >= 1");
+        // the collector's own roots stay young next to the restored objects
+        int youngNeeded = snapshot == null ? 0 : Math.max(snapshot.youngCapacity(), snapshot.youngCount() + rootCount);
+        int oldNeeded = snapshot == null ? 0 : snapshot.oldCapacity();
+        if (youngSize < youngNeeded || oldSize < oldNeeded) {
+            GcLog.info("The snapshot was captured from a " + snapshot.youngCapacity() + "/" + snapshot.oldCapacity()
+                    + " young/old heap, growing the " + youngSize + "/" + oldSize + " one to fit it");
+            youngSize = Math.max(youngSize, youngNeeded);
+            oldSize = Math.max(oldSize, oldNeeded);
+        }
+        // the parallel collector needs a storage that tolerates concurrent reference updates
+        HeapStorage storage = parseHeapStorage(option(args, "heap", "object"), mode == 2);
         GarbageCollector collector;
 
         if (mode == 1) {
-            collector = new SerialGarbageCollector(youngSize, oldSize, rootCount, promotionThreshold);
+            SerialGarbageCollector serial = new SerialGarbageCollector(youngSize, oldSize, rootCount,
+                    parseSizePolicy(args, youngSize, oldSize, promotionThreshold), storage);
+            if (parseLazySweep(args)) serial.setLazySweeping(true, parseFragmentationThreshold(args));
+            collector = serial;
+        } else if (mode == 3) {
+            int survivorRatio = parsePositiveInt(
+                    option(args, "survivor-ratio", String.valueOf(CopyingGarbageCollector.DEFAULT_SURVIVOR_RATIO)), "survivor-ratio");
+            collector = new CopyingGarbageCollector(youngSize, oldSize, rootCount, promotionThreshold, survivorRatio, storage);
+        } else if (mode == 4) {
+            int regionSize = parsePositiveInt(
+                    option(args, "region-size", String.valueOf(RegionGarbageCollector.defaultRegionSize(youngSize + oldSize))), "region-size");
+            int pauseTarget = parsePositiveInt(
+                    option(args, "pause-target", String.valueOf(RegionGarbageCollector.DEFAULT_PAUSE_TARGET_MILLIS)), "pause-target");
+            // regions change generation freely, so the heap grows up to both maximums together
+            int maxHeapSize = parseMaxSize(args, "max-young", youngSize) + parseMaxSize(args, "max-old", oldSize);
+            collector = new RegionGarbageCollector(youngSize, oldSize, rootCount, promotionThreshold, regionSize, pauseTarget,
+                    maxHeapSize, storage);
         } else {
             if (args.length < 7) {
                 throw new IllegalArgumentException("Missing numThreads for Parallel mode. Usage: ... [numThreads]");
             }
             int numThreads = parsePositiveInt(args[6], "numThreads");
-            collector = new ParallelGarbageCollector(youngSize, oldSize, rootCount, numThreads, promotionThreshold);
+            ParallelGarbageCollector parallel = new ParallelGarbageCollector(youngSize, oldSize, rootCount,
+                    GcWorkers.create(option(args, "gc-workers", "forkjoin"), numThreads),
+                    parseSizePolicy(args, youngSize, oldSize, promotionThreshold), storage);
+            if (parseLazySweep(args)) parallel.setLazySweeping(true, parseFragmentationThreshold(args));
+            collector = parallel;
         }
 
         return collector;
     }
 
+    private static AdaptiveSizePolicy parseSizePolicy(String[] args, int youngSize, int oldSize, int promotionThreshold) {
+        int maxYoung = parseMaxSize(args, "max-young", youngSize);
+        int maxOld = parseMaxSize(args, "max-old", oldSize);
+        int pauseGoal = parsePositiveInt(
+                option(args, "pause-target", String.valueOf(AdaptiveSizePolicy.DEFAULT_PAUSE_GOAL_MILLIS)), "pause-target");
+        return new AdaptiveSizePolicy(youngSize, maxYoung, oldSize, maxOld, promotionThreshold, pauseGoal);
+    }
+
+    // the generations may grow to four times their initial size unless --max-young and --max-old say otherwise
+    private static int parseMaxSize(String[] args, String name, int size) {
+        return parsePositiveInt(option(args, name, String.valueOf(size * AdaptiveSizePolicy.DEFAULT_MAX_SIZE_RATIO)), name);
+    }
+
+    private static boolean parseLazySweep(String[] args) {
+        String sweep = option(args, "sweep", "eager");
+        switch (sweep) {
+            case "eager": return false;
+            case "lazy":  return true;
+            default: throw new IllegalArgumentException("Invalid sweep: '" + sweep + "' (valid: eager, lazy)");
+        }
+    }
+
+    private static double parseFragmentationThreshold(String[] args) {
+        double threshold = parseNonNegativeDouble(
+                option(args, "fragmentation-threshold", String.valueOf(LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD)), "fragmentation-threshold");
+        if (threshold > 1) throw new IllegalArgumentException("fragmentation-threshold must be <= 1 (got " + threshold + ")");
+        return threshold;
+    }
+
+    // optional settings come after the positional arguments as --name=value
+    private static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+
+    private static HeapStorage parseHeapStorage(String s, boolean concurrent) {
+        switch (s) {
+            case "object": return new ObjectHeapStorage(concurrent);
+            case "array":  return new ArrayHeapStorage(concurrent);
+            default: throw new IllegalArgumentException("Invalid heap: '" + s + "' (valid: object, array)");
+        }
+    }
+
     private static int parseIntOrThrow(String s, String name) {
         try {
             return Integer.parseInt(s);
@@ -48,6 +154,14 @@ public class Main {
         }
     }
 
+    private static long parseLongOrThrow(String s, String name) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + name + ": '" + s + "'", e);
+        }
+    }
+
     private static int parsePositiveInt(String s, String name) {
         int v = parseIntOrThrow(s, name);
         if (v <= 0) throw new IllegalArgumentException(name + " must be > 0 (got " + v + ")");
@@ -60,13 +174,77 @@ public class Main {
         return v;
     }
 
-    public static void main(String[] args) {
+    private static void runWorkload(GarbageCollector collector, int objectsQuantity, int mutators, long seed, String[] args) {
+        String lifetime = option(args, "lifetime", null);
+        if (lifetime != null) {
+            // objects die when their lifetime runs out instead of one random object per collection
+            collector.setRandomDeletion(false);
+        }
+        WorkloadDriver driver = new WorkloadDriver(collector, mutators,
+                Boolean.parseBoolean(option(args, "virtual", "false")),
+                (objectsQuantity + mutators - 1) / mutators,
+                parseNonNegativeDouble(option(args, "rate", "0"), "rate"),
+                parseNonNegativeDouble(option(args, "add-ratio", "0"), "add-ratio"),
+                parseNonNegativeDouble(option(args, "remove-ratio", "0"), "remove-ratio"),
+                lifetime == null ? LifetimeDistribution.immortal() : LifetimeDistribution.parse(lifetime),
+                GraphTopology.parse(option(args, "topology", "random")), seed);
+        try {
+            System.out.println(driver.run());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        try (GarbageCollector collector = getGarbageCollector(args)) {
-            int objectsQuantity = Integer.parseInt(args[0]);
+    private static double parseNonNegativeDouble(String s, String name) {
+        double v;
+        try {
+            v = Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + name + ": '" + s + "'", e);
+        }
+        if (v < 0) throw new IllegalArgumentException(name + " must be >= 0 (got " + v + ")");
+        return v;
+    }
+
+    private static void simulate(GarbageCollector collector, HeapSnapshot snapshot, String[] args) throws IOException {
+        // without --seed a run picks its own, logged so that it can be repeated
+        String seedOption = option(args, "seed", null);
+        long seed = seedOption == null ? new SplittableRandom().nextLong() : parseLongOrThrow(seedOption, "seed");
+        GcLog.info("Seed: " + seed);
+        collector.setSeed(seed);
+        if (GcLog.DEBUG) collector.metrics().addListener(event -> GcLog.debug(event.toString()));
+        if (snapshot != null) snapshot.restore(collector);
+        int objectsQuantity = Integer.parseInt(args[0]);
+        String mutators = option(args, "mutators", null);
+        if (mutators == null) {
             for (int i = 1; i <= objectsQuantity; i++) {
                 collector.allocateYoung(new GCObject("Obj" + i));
             }
+        } else {
+            runWorkload(collector, objectsQuantity, parsePositiveInt(mutators, "mutators"), seed, args);
+        }
+        GcLog.info(() -> collector.metrics().snapshot().toString());
+        String snapshotOut = option(args, "snapshot-out", null);
+        if (snapshotOut != null) collector.snapshot().write(Paths.get(snapshotOut));
+    }
+
+    public static void main(String[] args) throws IOException {
+        // GcLog reads its settings once, when it is first used, so they must be in place before any collector exists
+        String log = option(args, "log", null);
+        if (log != null) System.setProperty("gc.log", log);
+        String logFile = option(args, "log-file", null);
+        if (logFile != null) System.setProperty("gc.log.file", logFile);
+
+        String gcLog = option(args, "gc-log", null);
+        String snapshotIn = option(args, "snapshot-in", null);
+        HeapSnapshot snapshot = snapshotIn == null ? null : HeapSnapshot.read(Paths.get(snapshotIn));
+        try (GarbageCollector collector = getGarbageCollector(args, snapshot)) {
+            GcEventLog eventLog = gcLog == null ? null : new GcEventLog(collector, Paths.get(gcLog));
+            try {
+                simulate(collector, snapshot, args);
+            } finally {
+                if (eventLog != null) eventLog.close();
+            }
         }
         
         
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+// the grey objects of a marking. It grows up to maxCapacity, and a push beyond that drops the slot, which its
+// marker has already marked, and records the overflow as HotSpot's marking does. Draining the stack then scans
+// every marked object from the lowest dropped slot on again, see GarbageCollector.rescanMarked
+public class MarkStack {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int DEFAULT_MAX_CAPACITY = 1 << 16;
+
+    private final int maxCapacity;
+    private int[] elements;
+    private int size = 0;
+    // the lowest slot dropped since the last takeOverflow, -1 if none was
+    private int overflowFrom = -1;
+    private long overflowCount = 0;
+
+    public MarkStack() {
+        this(DEFAULT_MAX_CAPACITY);
+    }
+
+    public MarkStack(int maxCapacity) {
+        if (maxCapacity < 1) throw new IllegalArgumentException("maxCapacity must be >= 1 (got " + maxCapacity + ")");
+        this.maxCapacity = maxCapacity;
+        this.elements = new int[Math.min(INITIAL_CAPACITY, maxCapacity)];
+    }
+
+    // for work lists of slots that are not marked yet, which must never be dropped
+    public static MarkStack unbounded() {
+        return new MarkStack(Integer.MAX_VALUE);
+    }
+
+    public void push(int slot) {
+        if (size == elements.length) {
+            if (elements.length == maxCapacity) {
+                overflowCount++;
+                if (overflowFrom < 0 || slot < overflowFrom) overflowFrom = slot;
+                return;
+            }
+            elements = Arrays.copyOf(elements, (int) Math.min(elements.length * 2L, maxCapacity));
+        }
+        elements[size++] = slot;
+    }
+
+    // returns -1 once the stack is empty
+    public int pop() {
+        return size == 0 ? -1 : elements[--size];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the lowest slot a push dropped since the last call, or -1 if none was; clears the overflow
+    public int takeOverflow() {
+        int from = overflowFrom;
+        overflowFrom = -1;
+        return from;
+    }
+
+    // removes the n oldest entries, which usually lead to the largest unscanned subgraphs
+    public int[] takeBottom(int n) {
+        n = Math.min(n, size);
+        int[] taken = Arrays.copyOfRange(elements, 0, n);
+        System.arraycopy(elements, n, elements, 0, size - n);
+        size -= n;
+        return taken;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+}
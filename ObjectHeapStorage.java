@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// one Java object per simulated object, the layout GCObject used to carry itself
+public class ObjectHeapStorage implements HeapStorage {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // nodes live in fixed-size chunks, so a slot never moves and readers never see a half-grown array
+    private volatile Node[][] chunks = new Node[1][];
+    private int size = 0;
+    // freed slots, the one freed last on top
+    private int[] freeSlots = new int[0];
+    private int freeCount = 0;
+    private final boolean concurrent;
+    private WriteBarrier barrier = WriteBarrier.NONE;
+
+    // a freed slot holds a node without an id, which only carries the slot's generation on
+    private static class Node {
+        final String id;
+        final int generation;
+        int age = 0;
+        final ReferenceList references = new ReferenceList();
+
+        Node(String id, int generation) {
+            this.id = id;
+            this.generation = generation;
+        }
+    }
+
+    public ObjectHeapStorage() {
+        this(false);
+    }
+
+    // in concurrent mode objects can be allocated and referenced from several mutator threads at once
+    public ObjectHeapStorage(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
+    public int allocate(String id) {
+        if (!concurrent) return place(id);
+        synchronized (this) {
+            return place(id);
+        }
+    }
+
+    private int place(String id) {
+        if (freeCount > 0) {
+            int slot = freeSlots[--freeCount];
+            set(slot, new Node(id, node(slot).generation));
+            return slot;
+        }
+        int slot = size;
+        int chunk = slot >>> CHUNK_BITS;
+        if (chunk == chunks.length) chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        if (chunks[chunk] == null) chunks[chunk] = new Node[CHUNK_SIZE];
+        set(slot, new Node(id, 0));
+        size = slot + 1;
+        return slot;
+    }
+
+    public void free(int slot) {
+        if (!concurrent) {
+            release(slot);
+            return;
+        }
+        synchronized (this) {
+            release(slot);
+        }
+    }
+
+    private void release(int slot) {
+        Node node = node(slot);
+        if (node.id == null) return;
+        set(slot, new Node(null, node.generation + 1));
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, Math.max(16, freeCount * 2));
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void set(int slot, Node node) {
+        chunks[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)] = node;
+    }
+
+    private Node node(int slot) {
+        return chunks[slot >>> CHUNK_BITS][slot & (CHUNK_SIZE - 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int generation(int slot) {
+        return node(slot).generation;
+    }
+
+    public String id(int slot) {
+        return node(slot).id;
+    }
+
+    public int age(int slot) {
+        return node(slot).age;
+    }
+
+    public void setAge(int slot, int age) {
+        node(slot).age = age;
+    }
+
+    public int referenceCount(int slot) {
+        return node(slot).references.size();
+    }
+
+    public int reference(int slot, int index) {
+        return node(slot).references.get(index);
+    }
+
+    public void addReference(int from, int to) {
+        ReferenceList references = node(from).references;
+        if (!concurrent) {
+            references.add(to);
+        } else {
+            synchronized (references) {
+                references.add(to);
+            }
+        }
+        barrier.referenceStored(from, to);
+    }
+
+    public void setWriteBarrier(WriteBarrier barrier) {
+        this.barrier = barrier;
+    }
+
+    public void removeReference(int from, int to) {
+        barrier.referenceRemoved(from, to);
+        retainReferences(from, ref -> ref != to);
+    }
+
+    public void retainReferences(int slot, IntPredicate keep) {
+        ReferenceList references = node(slot).references;
+        if (!concurrent) {
+            references.retainIf(keep);
+            return;
+        }
+        synchronized (references) {
+            references.retainIf(keep);
+        }
+    }
+}
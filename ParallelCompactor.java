@@ -0,0 +1,153 @@
+import java.util.function.Predicate;
+
+// sliding compaction in the style of the Parallel GC summary phase: live objects are counted per chunk,
+// the counts are prefix-summed into destination offsets, and then every chunk forwards and moves its
+// objects on its own. Chunks slide over each other's source ranges, so they move through a scratch
+// array instead of waiting on each other
+public class ParallelCompactor {
+    private static final int CHUNK_SIZE = 1024;
+    // below this many chunks, or with a single worker or CPU, one in-place pass beats the three parallel ones
+    private static final int MIN_PARALLEL_CHUNKS = 8;
+
+    private final GcWorkers workers;
+    private GCObject[] scratch = new GCObject[0];
+    // forwarding[i] is the index the object at i moved to in the last compaction, -1 if i was empty
+    private int[] forwarding = new int[0];
+    private int[] liveCounts = new int[0];
+    private int[] destinations = new int[0];
+    private int[] movedCounts = new int[0];
+    private int[] sweptCounts = new int[0];
+    private int moved = 0;
+    private int swept = 0;
+
+    public ParallelCompactor(GcWorkers workers) {
+        this.workers = workers;
+    }
+
+    // returns the number of live objects, which now fill heap[0 .. count)
+    public int compact(GCObject[] heap) {
+        return sweepAndCompact(heap, object -> true);
+    }
+
+    // also sweeps: objects failing survives are dropped in the counting pass, so the region is walked
+    // once less than with a separate sweep
+    public int sweepAndCompact(GCObject[] heap, Predicate<GCObject> survives) {
+        int chunks = Math.max(1, (heap.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        ensureCapacity(heap.length, chunks);
+        if (!parallel(chunks)) return slide(heap, survives);
+
+        workers.forEach(chunks, chunk -> {
+            int live = 0;
+            int dead = 0;
+            for (int i = chunk * CHUNK_SIZE, end = chunkEnd(chunk, heap); i < end; i++) {
+                if (heap[i] == null) continue;
+                if (survives.test(heap[i])) {
+                    live++;
+                } else {
+                    heap[i] = null;
+                    dead++;
+                }
+            }
+            liveCounts[chunk] = live;
+            sweptCounts[chunk] = dead;
+        });
+
+        int total = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            destinations[chunk] = total;
+            total += liveCounts[chunk];
+        }
+
+        workers.forEach(chunks, chunk -> {
+            int destination = destinations[chunk];
+            int movedInChunk = 0;
+            for (int i = chunk * CHUNK_SIZE, end = chunkEnd(chunk, heap); i < end; i++) {
+                if (heap[i] == null) {
+                    forwarding[i] = -1;
+                    continue;
+                }
+                if (destination != i) movedInChunk++;
+                forwarding[i] = destination;
+                scratch[destination++] = heap[i];
+            }
+            movedCounts[chunk] = movedInChunk;
+        });
+
+        int live = total;
+        workers.forEach(chunks, chunk -> {
+            for (int i = chunk * CHUNK_SIZE, end = chunkEnd(chunk, heap); i < end; i++) {
+                heap[i] = i < live ? scratch[i] : null;
+                scratch[i] = null;
+            }
+        });
+
+        moved = 0;
+        swept = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            moved += movedCounts[chunk];
+            swept += sweptCounts[chunk];
+        }
+        return total;
+    }
+
+    private int slide(GCObject[] heap, Predicate<GCObject> survives) {
+        int top = 0;
+        moved = 0;
+        swept = 0;
+        for (int i = 0; i < heap.length; i++) {
+            if (heap[i] == null) {
+                forwarding[i] = -1;
+                continue;
+            }
+            if (!survives.test(heap[i])) {
+                heap[i] = null;
+                forwarding[i] = -1;
+                swept++;
+                continue;
+            }
+            forwarding[i] = top;
+            if (i != top) {
+                heap[top] = heap[i];
+                heap[i] = null;
+                moved++;
+            }
+            top++;
+        }
+        return top;
+    }
+
+    public int forwardingIndex(int index) {
+        return forwarding[index];
+    }
+
+    // objects whose index changed in the last compaction
+    public int getMovedCount() {
+        return moved;
+    }
+
+    // objects dropped by the last sweepAndCompact
+    public int getSweptCount() {
+        return swept;
+    }
+
+    private boolean parallel(int chunks) {
+        return chunks >= MIN_PARALLEL_CHUNKS && Math.min(workers.parallelism(), Runtime.getRuntime().availableProcessors()) > 1;
+    }
+
+    private static int chunkEnd(int chunk, GCObject[] heap) {
+        return Math.min(heap.length, (chunk + 1) * CHUNK_SIZE);
+    }
+
+    private void ensureCapacity(int length, int chunks) {
+        if (forwarding.length < length) forwarding = new int[length];
+        if (scratch.length < length && parallel(chunks)) {
+            scratch = new GCObject[length];
+        }
+        if (liveCounts.length < chunks) {
+            liveCounts = new int[chunks];
+            destinations = new int[chunks];
+            movedCounts = new int[chunks];
+            sweptCounts = new int[chunks];
+        }
+    }
+}
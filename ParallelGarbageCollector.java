@@ -1,28 +1,137 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.concurrent.*;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ParallelGarbageCollector implements GarbageCollector {
-    private final GCObject[] youngHeap;
-    private final GCObject[] oldHeap;
+    // a marking worker shares half of its stack once it holds more than this many objects and another worker is idle
+    private static final int MARK_STACK_SPLIT = 64;
+    // reference lists longer than this are scanned by several workers
+    private static final int REFERENCES_SPLIT = 256;
+    // sweep() hands out the heap in chunks of this many slots. They are a multiple of the 16 compressed references
+    // in a cache line, so only the line at a chunk boundary can be written by two workers
+    private static final int SWEEP_CHUNK = 1024;
+    // an idle marking worker spins this often before it yields between looks at the mark queue; on a single CPU it yields at once
+    private static final int MARK_SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+    // each mutator thread's TLAB covers about this fraction of the young heap divided by the thread count
+    private static final int TLABS_PER_THREAD = 4;
+
+    private static final VarHandle YOUNG_POINTER;
+    private static final VarHandle OLD_POINTER;
+    private static final VarHandle HEAP_SLOT = MethodHandles.arrayElementVarHandle(GCObject[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            YOUNG_POINTER = lookup.findVarHandle(ParallelGarbageCollector.class, "youngPointer", int.class);
+            OLD_POINTER = lookup.findVarHandle(ParallelGarbageCollector.class, "oldPointer", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // replaced by larger or smaller copies when the size policy resizes a generation. That only happens at
+    // a safepoint, and a mutator entering afterwards sees the new arrays
+    private GCObject[] youngHeap;
+    private GCObject[] oldHeap;
     private volatile int youngPointer = 0;
     private volatile int oldPointer = 0;
-    private final Random random;
-    private final int promotionThreshold;
-    private final Set<String> actualDeletedIds = ConcurrentHashMap.newKeySet();
+    // collections draw from random at a safepoint. Each mutator thread draws its random references from its
+    // own generator, split off mutatorSeeds when it first allocates; setSeed replaces all three at a safepoint
+    private SplittableRandom random = new SplittableRandom();
+    private SplittableRandom mutatorSeeds = random.split();
+    private ThreadLocal<SplittableRandom> mutatorRandom = mutatorRandom(mutatorSeeds);
+    private final AdaptiveSizePolicy sizePolicy;
+    private final HeapBitmap liveBits;
+    private final HeapBitmap markBits;
+    // set for objects in the old generation, and cleared when a freed slot is handed out again
+    private final HeapBitmap oldBits;
+    private final CardTable cardTable;
+    // free old slots and the pending sweep while the old generation is non-moving, see setLazySweeping. Mutators
+    // allocating in the old generation sweep under its lock
+    private final LazySweeper sweeper;
+    // storage slots of the objects the lazy sweep dropped, guarded by the sweeper's lock. An old object may have
+    // been given a reference to one of them after the marking that found it dead, so they are only freed after
+    // the next full marking
+    private final ReferenceList lazilySwept = new ReferenceList();
+    // random deletion victims the full marking before them had already reached. Objects it scanned may still
+    // reference them, so they are only freed after the next marking
+    private final ReferenceList reachedVictims = new ReferenceList();
+    private boolean lazySweeping = false;
+    private double fragmentationThreshold = LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD;
+    // live old objects as of the last full collection
+    private int oldLive = 0;
+    // while set, marking stops at old objects; only changed at a safepoint, before the mark tasks are forked
+    private boolean youngOnly = false;
+    // the mark bit value that means "marked" in each generation; it flips at the safepoint after the
+    // generation is swept, which unmarks every survivor without a clearing pass
+    private boolean youngMark = true;
+    private boolean oldMark = true;
+    // set by a full collection, whose marks also cover the young generation it collects next
+    private boolean youngMarked = false;
+    private final HeapStorage storage;
     private final List<GCObject> rootObjects = new CopyOnWriteArrayList<>();
-    private final ExecutorService executor;
+    private final GcWorkers workers;
+    private final ParallelCompactor compactor;
     private final int numThreads;
+    // one per worker index, since the thread behind an index may change from phase to phase
+    private final MarkStack[] markStacks;
+    // work shared by the marking workers, and how many of them hold work that may still add to it
+    private final ConcurrentLinkedQueue<MarkWork> markQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeMarkers = new AtomicInteger();
+    private final ReferenceProcessor references;
+    private final Safepoint safepoint = new Safepoint();
+    private final GcMetrics metrics;
+    private final ThreadLocal<Tlab> tlabs = ThreadLocal.withInitial(Tlab::new);
+    private int tlabSize;
+    // bumped by every young collection, which retires all outstanding TLABs
+    private volatile int tlabEpoch = 0;
+    private volatile boolean randomDeletion = true;
+
+    private static final class Tlab {
+        int top;
+        int end;
+        int epoch = -1;
+    }
 
     public ParallelGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int numThreads, int promotionThreshold) {
+        this(youngSize, oldSize, rootObjectsQuantity, numThreads, promotionThreshold, new ObjectHeapStorage(true));
+    }
+
+    public ParallelGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int numThreads, int promotionThreshold, HeapStorage storage) {
+        this(youngSize, oldSize, rootObjectsQuantity, numThreads, AdaptiveSizePolicy.fixedSize(youngSize, oldSize, promotionThreshold), storage);
+    }
+
+    public ParallelGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int numThreads, AdaptiveSizePolicy sizePolicy, HeapStorage storage) {
+        this(youngSize, oldSize, rootObjectsQuantity, GcWorkers.forkJoin(numThreads), sizePolicy, storage);
+    }
+
+    // the generations start at youngSize and oldSize; the size policy resizes them and picks the tenuring threshold.
+    // The collector owns the workers and shuts them down with itself
+    public ParallelGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, GcWorkers workers, AdaptiveSizePolicy sizePolicy, HeapStorage storage) {
+        this.storage = storage;
         this.youngHeap = new GCObject[youngSize];
         this.oldHeap = new GCObject[oldSize];
-        this.random = new Random();
-        this.executor = Executors.newFixedThreadPool(numThreads);
-        this.numThreads = numThreads;
-        this.promotionThreshold = promotionThreshold;
+        this.liveBits = new HeapBitmap(youngSize + oldSize);
+        this.markBits = new HeapBitmap(youngSize + oldSize);
+        this.oldBits = new HeapBitmap(youngSize + oldSize);
+        this.cardTable = new CardTable(liveBits.capacity());
+        this.sweeper = new LazySweeper(oldSize);
+        storage.setWriteBarrier(this::referenceStored);
+        this.workers = workers;
+        this.compactor = new ParallelCompactor(workers);
+        this.numThreads = workers.parallelism();
+        this.markStacks = new MarkStack[numThreads];
+        for (int i = 0; i < numThreads; i++) markStacks[i] = new MarkStack();
+        this.references = new ReferenceProcessor(storage, workers);
+        this.sizePolicy = sizePolicy;
+        this.tlabSize = tlabSize(youngSize);
+        this.metrics = new GcMetrics(youngSize, oldSize, numThreads);
         setRootObjects(rootObjectsQuantity);
     }
 
@@ -34,232 +143,785 @@ public class ParallelGarbageCollector implements GarbageCollector {
         }
     }
 
-    public synchronized void allocateYoung(GCObject object) {
-        System.out.println("Allocating in Young Heap: "+object.id);
-        System.out.println("Print Heap before allocation: ");
-        printHeap();
-        if(youngPointer < youngHeap.length){
-            randomReference(object);
-            youngHeap[youngPointer++] = object;
-            promoteYoungObjects();
-            System.out.println("Print Heap After allocation: ");
-            printHeap();
-            return;
+    // binding is thread-safe in a concurrent storage; growing the bitmaps needs every other thread stopped
+    private void assignSlot(GCObject object) {
+        if (object.storage == storage) return;
+        if (object.storage != null) {
+            throw new IllegalArgumentException(object.id() + " was already allocated by another collector");
         }
-        minorGC();
-        randomReference(object);
-        youngHeap[youngPointer++] = object;
-        promoteYoungObjects();
-        System.out.println("Print Heap After allocation: ");
-        printHeap();
-    }
-
-    public synchronized void allocateOld(GCObject object) {
-        System.out.println("Allocating in Old Heap: "+object.id);
-        if(oldPointer < oldHeap.length){
-            oldHeap[oldPointer++] = object;
-            object.marked = false;
-            System.out.println("Allocated Old: " + object);
-            System.out.println("Old Pointer: " + oldPointer);
-            return;
+        object.bind(storage);
+        if (object.slot >= liveBits.capacity()) {
+            safepoint.run(() -> {
+                liveBits.ensureCapacity(storage.size());
+                markBits.ensureCapacity(storage.size());
+                oldBits.ensureCapacity(storage.size());
+                cardTable.ensureCapacity(liveBits.capacity());
+            });
         }
-        fullGC();
-        if(actualDeletedIds.contains(object.id)){
-            System.out.println("Object was deleted during full GC, skipping allocation");
-            return;
+        safepoint.enter();
+        try {
+            liveBits.setAtomic(object.slot);
+            oldBits.clearAtomic(object.slot);
+        } finally {
+            safepoint.leave();
         }
-        oldHeap[oldPointer++] = object;
-        object.marked = false;
-        System.out.println("Allocated Old: " + object);
-        System.out.println("Old Pointer: " + oldPointer);
     }
 
-    public void randomReference(GCObject newObject) {
-        if ("Root".equals(newObject.id)) return;
-
-        GCObject target;
-        int randomIndex;
-        do {
-            randomIndex = random.nextInt(youngHeap.length + oldHeap.length);
-            if (randomIndex < youngHeap.length) {
-                target = youngHeap[randomIndex];
-            } else {
-                target = oldHeap[randomIndex - youngHeap.length];
+    // a non-moving old generation: full collections only mark, and allocation in the old generation sweeps
+    // their garbage lazily. The old generation is compacted only once more than fragmentationThreshold of
+    // the space below its bump pointer is free or garbage
+    public void setLazySweeping(boolean enabled, double fragmentationThreshold) {
+        if (fragmentationThreshold < 0 || fragmentationThreshold > 1) {
+            throw new IllegalArgumentException("fragmentationThreshold must be between 0 and 1 (got " + fragmentationThreshold + ")");
+        }
+        safepoint.run(() -> {
+            finishSweep();
+            this.lazySweeping = enabled;
+            this.fragmentationThreshold = fragmentationThreshold;
+        });
+    }
+
+    // post-write barrier, run by whichever thread stored the reference: remembers old objects that now reference a young one
+    private void referenceStored(int from, int to) {
+        if (oldBits.get(from) && !oldBits.get(to)) cardTable.dirty(from);
+    }
+
+    public HeapStorage storage() {
+        return storage;
+    }
+
+    public void allocateYoung(GCObject object) {
+        GcLog.debug(() -> "Allocating in Young Heap: " + object.id());
+        assignSlot(object);
+        GcLog.trace(() -> "Print Heap before allocation: \n" + describeHeap());
+        while (true) {
+            int epoch;
+            safepoint.enter();
+            try {
+                int index = claimYoungSlot();
+                if (index >= 0) {
+                    randomReference(object);
+                    // a collection may have flipped the mark value since the slot was assigned
+                    markBits.putAtomic(object.slot, !youngMark);
+                    HEAP_SLOT.setRelease(youngHeap, index, object);
+                    GcLog.trace(() -> "Print Heap After allocation: \n" + describeHeap());
+                    return;
+                }
+                epoch = tlabEpoch;
+            } finally {
+                safepoint.leave();
             }
-        } while (target == null);
+            safepoint.run(() -> {
+                // another thread may have collected while this one waited for the safepoint
+                if (tlabEpoch == epoch) {
+                    metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+                    minorGC();
+                    // the size policy grows the young generation past its survivors unless it is already at its maximum.
+                    // Then they are all tenured whatever their age, after a full collection if the old generation is full
+                    if (youngPointer == youngHeap.length && promote(0)) {
+                        metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+                        fullGC();
+                        promote(0);
+                    }
+                    if (youngPointer == youngHeap.length) {
+                        throw new IllegalStateException("Heap exhausted: the young generation is still full of survivors, cannot allocate " + object.id());
+                    }
+                }
+            });
+        }
+    }
 
-        synchronized (target) {
-            target.addReference(newObject);
+    private int tlabSize(int youngSize) {
+        return Math.max(1, youngSize / (numThreads * TLABS_PER_THREAD));
+    }
+
+    private int claimYoungSlot() {
+        Tlab tlab = tlabs.get();
+        if (tlab.epoch != tlabEpoch || tlab.top == tlab.end) {
+            int start = bump(YOUNG_POINTER, tlabSize, youngHeap.length);
+            if (start < 0) return -1;
+            tlab.top = start;
+            tlab.end = Math.min(start + tlabSize, youngHeap.length);
+            tlab.epoch = tlabEpoch;
         }
+        return tlab.top++;
+    }
 
-        System.out.println("Added Ref " + newObject.id + " as reference to " + target.id);
+    // claims up to size slots with a single CAS on the bump pointer, or returns -1 when the region is full
+    private int bump(VarHandle pointer, int size, int limit) {
+        while (true) {
+            int start = (int) pointer.getVolatile(this);
+            if (start >= limit) return -1;
+            if (pointer.compareAndSet(this, start, Math.min(start + size, limit))) return start;
+        }
     }
 
-    public void mark(GCObject obj) {
-        mark(obj, null);
+    public void allocateOld(GCObject object) {
+        GcLog.debug(() -> "Allocating in Old Heap: " + object.id());
+        assignSlot(object);
+        safepoint.enter();
+        try {
+            int index;
+            // the end of a sweep flips the old mark value, which placeOld reads, so a free slot is taken and
+            // filled under the sweeper's lock. Once none is left the sweep is over until the next full collection
+            synchronized (sweeper) {
+                index = freeOldSlot();
+                if (index >= 0) placeOld(object, index);
+            }
+            if (index < 0) {
+                index = bump(OLD_POINTER, 1, oldHeap.length);
+                if (index >= 0) placeOld(object, index);
+            }
+            if (index >= 0) {
+                GcLog.debug(() -> "Allocated Old: " + object + "\nOld Pointer: " + oldPointer);
+                return;
+            }
+        } finally {
+            safepoint.leave();
+        }
+        safepoint.run(() -> {
+            // another thread may have collected while this one waited for the safepoint; the full
+            // collection grows the old generation unless it is already at its maximum
+            int index = oldSlot();
+            if (index < 0) {
+                metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+                fullGC();
+                if(!liveBits.get(object.slot)){
+                    GcLog.info("Object was deleted during full GC, skipping allocation");
+                    return;
+                }
+                index = oldSlot();
+            }
+            if (index < 0) {
+                throw new IllegalStateException("Heap exhausted: the old generation is still full after a full GC, cannot allocate " + object.id());
+            }
+            placeOld(object, index);
+            GcLog.debug(() -> "Allocated Old: " + object + "\nOld Pointer: " + oldPointer);
+        });
     }
 
+    // only runs at a safepoint: the lowest free old slot, then the bump pointer; -1 when the old generation is full
+    private int oldSlot() {
+        int index = freeOldSlot();
+        return index >= 0 || oldPointer == oldHeap.length ? index : oldPointer++;
+    }
 
-    private void mark(GCObject obj, GCObject parent) {
+    // the lowest free old slot, sweeping on while a pending sweep may still free one. Mutators hold the sweeper's lock
+    private int freeOldSlot() {
+        int index;
+        while ((index = sweeper.take()) < 0 && sweeper.sweeping()) {
+            sweepOld();
+        }
+        return index;
+    }
+
+    // one step of the lazy sweep, timed as a sweep phase of its own. Once the sweep is done every object left
+    // in the old generation is marked, so flipping the mark value unmarks them all
+    private void sweepOld() {
+        long start = System.nanoTime();
+        metrics.swept(sweeper.sweep(oldHeap, this::survivesLazily));
+        if (!sweeper.sweeping()) oldMark = !oldMark;
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+    }
+
+    // only runs at a safepoint
+    private void finishSweep() {
+        while (sweeper.sweeping()) sweepOld();
+    }
 
-        if (actualDeletedIds.contains(obj.id)) {
-            if (parent != null) {
+    private void placeOld(GCObject object, int index) {
+        oldBits.setAtomic(object.slot);
+        // allocated black while a sweep is pending, so the sweep keeps it and the flip at its end unmarks it
+        markBits.putAtomic(object.slot, sweeper.sweeping() ? oldMark : !oldMark);
+        // a promoted object may still reference young objects
+        if (storage.referenceCount(object.slot) > 0) cardTable.dirty(object.slot);
+        HEAP_SLOT.setRelease(oldHeap, index, object);
+    }
+
+    public void setSeed(long seed) {
+        safepoint.run(() -> {
+            random = new SplittableRandom(seed);
+            mutatorSeeds = random.split();
+            mutatorRandom = mutatorRandom(mutatorSeeds);
+        });
+    }
 
-                parent.references.removeIf(r -> actualDeletedIds.contains(r.id));
+    private static ThreadLocal<SplittableRandom> mutatorRandom(SplittableRandom seeds) {
+        return ThreadLocal.withInitial(() -> {
+            synchronized (seeds) {
+                return seeds.split();
             }
-            actualDeletedIds.remove(obj.id);
-            return;
+        });
+    }
+
+    public void randomReference(GCObject newObject) {
+        if ("Root".equals(newObject.id())) return;
+
+        // both generations are compacted below their pointers, but for the unused ends of TLABs, the slots of
+        // allocations still in progress and the free slots of a non-moving old generation. A hole falls back
+        // to the closest object published below it
+        int young = youngPointer;
+        int objects = young + oldPointer;
+        GCObject target = null;
+        int index = objects == 0 ? 0 : mutatorRandom.get().nextInt(objects);
+        for (int i = 0; i < objects && target == null; i++, index = index == 0 ? objects - 1 : index - 1) {
+            target = (GCObject) (index < young ? HEAP_SLOT.getAcquire(youngHeap, index) : HEAP_SLOT.getAcquire(oldHeap, index - young));
         }
+        if (target == null) return;
 
-        if (obj.marked) return;
+        target.addReference(newObject);
 
-        obj.marked = true;
+        GCObject referrer = target;
+        GcLog.debug(() -> "Added Ref " + newObject.id() + " as reference to " + referrer.id());
+    }
 
-        for (GCObject child : obj.references) {
-            mark(child, obj);
+    public void addReference(GCObject from, GCObject to) {
+        safepoint.enter();
+        try {
+            from.addReference(to);
+        } finally {
+            safepoint.leave();
         }
     }
 
-    public void sweep(GCObject[] heap) throws InterruptedException {
-        int chunkSize = (int) Math.ceil((double) heap.length / numThreads);
-        List<Callable<Void>> tasks = new CopyOnWriteArrayList<>();
+    public void removeReference(GCObject from, GCObject to) {
+        safepoint.enter();
+        try {
+            from.removeReference(to);
+        } finally {
+            safepoint.leave();
+        }
+    }
 
-        for (int i = 0; i < heap.length; i += chunkSize) {
-            final int start = i;
+    public void release(GCObject object) {
+        safepoint.enter();
+        try {
+            if (object.isReclaimed()) return;
+            GcLog.debug(() -> "Released: " + object.id());
+            liveBits.clearAtomic(object.slot);
+        } finally {
+            safepoint.leave();
+        }
+    }
 
-            final int end = Math.min(i + chunkSize, heap.length);
-            tasks.add(() -> {
-                for (int j = start; j < end; j++) {
+    public void setReferent(GCObject reference, GCObject referent, ReferenceProcessor.Type type, GcReferenceQueue queue) {
+        safepoint.enter();
+        try {
+            references.set(reference, referent, type, queue);
+        } finally {
+            safepoint.leave();
+        }
+    }
 
-                    if (heap[j] != null && !heap[j].marked) {
-                        actualDeletedIds.add(heap[j].id);
-                        heap[j] = null;
-                    }
-                }
-                return null;
-            });
+    public GCObject getReferent(GCObject reference) {
+        safepoint.enter();
+        try {
+            return references.get(reference);
+        } finally {
+            safepoint.leave();
         }
+    }
+
+    public void setRandomDeletion(boolean enabled) {
+        this.randomDeletion = enabled;
+    }
+
+    public HeapSnapshot snapshot() {
+        HeapSnapshot[] snapshot = new HeapSnapshot[1];
+        safepoint.run(() -> {
+            finishSweep();
+            snapshot[0] = HeapSnapshot.capture(storage, youngHeap, youngPointer, oldHeap, oldPointer, rootObjects, this::isLive);
+        });
+        return snapshot[0];
+    }
 
-        executor.invokeAll(tasks);
+    // young objects go through the restoring thread's TLAB, right behind the roots the constructor put there
+    public void restore(GCObject object, boolean old, boolean root) {
+        assignSlot(object);
+        safepoint.run(() -> {
+            int index = old ? (oldPointer < oldHeap.length ? oldPointer : -1) : claimYoungSlot();
+            if (index < 0) {
+                throw new IllegalStateException("Heap exhausted: the snapshot does not fit into the " + (old ? "old" : "young") + " generation");
+            }
+            if (old) {
+                placeOld(object, oldPointer++);
+            } else {
+                markBits.putAtomic(object.slot, !youngMark);
+                youngHeap[index] = object;
+            }
+            if (root) rootObjects.add(object);
+        });
+    }
+
+    public List<GCObject> rootObjects() {
+        return Collections.unmodifiableList(rootObjects);
+    }
+
+    public Safepoint safepoint() {
+        return safepoint;
+    }
+
+    public GcMetrics metrics() {
+        return metrics;
+    }
+
+    public void mark(GCObject obj) {
+        parallelMark(claimRoots(List.of(obj)));
+    }
+
+    public boolean isLive(int slot) {
+        // garbage the pending sweep has not reached yet is as dead as swept garbage
+        return liveBits.get(slot) && !(sweeper.sweeping() && oldBits.get(slot) && !isMarked(slot));
+    }
+
+    public boolean tryMark(int slot) {
+        boolean old = oldBits.get(slot);
+        if (youngOnly && old) return false;
+        return markBits.tryPutAtomic(slot, old ? oldMark : youngMark);
+    }
+
+    public boolean isMarked(int slot) {
+        return markBits.get(slot) == (oldBits.get(slot) ? oldMark : youngMark);
+    }
+
+    // only runs at a safepoint
+    private void free(ReferenceList slots) {
+        for (int i = 0; i < slots.size(); i++) storage.free(slots.get(i));
+        slots.clear();
+    }
+
+    // sweep callback of the fused pass, run by the compactor's workers
+    private boolean survives(GCObject object) {
+        if (isMarked(object.slot)) return true;
+        if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+        liveBits.clearAtomic(object.slot);
+        storage.free(object.slot);
+        return false;
+    }
+
+    // sweep callback of the lazy sweep, run under the sweeper's lock by mutators as well
+    private boolean survivesLazily(GCObject object) {
+        if (isMarked(object.slot)) return true;
+        if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+        liveBits.clearAtomic(object.slot);
+        lazilySwept.add(object.slot);
+        return false;
+    }
+
+    // only runs at a safepoint, right after a full marking, which dropped every reference to the objects the lazy sweep found dead
+    private void freeLazilySwept() {
+        synchronized (sweeper) {
+            free(lazilySwept);
+        }
+    }
+
+    // the workers claim small chunks from a shared cursor, so a heap whose garbage is bunched up still keeps
+    // them all busy. Each counts what it swept on its own and writes the count once, when the cursor runs out
+    public void sweep(GCObject[] heap) throws InterruptedException {
+        int chunks = (heap.length + SWEEP_CHUNK - 1) / SWEEP_CHUNK;
+        if (chunks <= 1 || numThreads == 1) {
+            metrics.swept(sweepRange(heap, 0, heap.length));
+            return;
+        }
+        AtomicInteger cursor = new AtomicInteger();
+        int[] swept = new int[numThreads];
+        workers.run(worker -> {
+            int count = 0;
+            int chunk;
+            while ((chunk = cursor.getAndIncrement()) < chunks) {
+                count += sweepRange(heap, chunk * SWEEP_CHUNK, Math.min((chunk + 1) * SWEEP_CHUNK, heap.length));
+            }
+            swept[worker] = count;
+        });
+        metrics.swept(Arrays.stream(swept).sum());
+    }
+
+    private int sweepRange(GCObject[] heap, int start, int end) {
+        int swept = 0;
+        for (int i = start; i < end; i++) {
+            if (heap[i] != null && !isMarked(heap[i].slot)) {
+                liveBits.clearAtomic(heap[i].slot);
+                storage.free(heap[i].slot);
+                heap[i] = null;
+                swept++;
+            }
+        }
+        return swept;
     }
 
     public void unmarkAll() {
-        for (GCObject obj : youngHeap) {
-            if (obj != null) obj.marked = false;
+        safepoint.run(this::finishSweep);
+        markBits.fill(oldBits, !youngMark, !oldMark);
+    }
+
+    // minor collections seed the marking workers with the young roots and whatever the old roots and the old
+    // objects on dirty cards reference in the young generation, and stop at old objects
+    private void markYoung() {
+        youngOnly = true;
+        GcLog.debug(() -> "Dirty cards: " + cardTable.dirtyCards());
+        ReferenceList seeds = new ReferenceList();
+        for (GCObject root : rootObjects) {
+            if (oldBits.get(root.slot)) markYoungReferences(root.slot, seeds);
+            else if (isLive(root.slot) && tryMark(root.slot)) seeds.add(root.slot);
         }
-        for (GCObject obj : oldHeap) {
-            if (obj != null) obj.marked = false;
+        cardTable.processDirtyCards(storage.size(), slot -> markYoungReferences(slot, seeds));
+        parallelMark(seeds.toArray());
+        youngOnly = false;
+    }
+
+    // claims what a live old object references in the young generation, returning whether it references any young
+    // object. References to dead objects are dropped here, since the collection frees their slots
+    private boolean markYoungReferences(int slot, ReferenceList seeds) {
+        if (!oldBits.get(slot) || !isLive(slot)) return false;
+        boolean young = false;
+        boolean dangling = false;
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (!isLive(child)) {
+                dangling = true;
+                continue;
+            }
+            if (oldBits.get(child)) continue;
+            young = true;
+            if (tryMark(child)) seeds.add(child);
         }
+        if (dangling) storage.retainReferences(slot, this::isLive);
+        return young;
+    }
+
+    // every young collection promotes; this only runs the promotion on its own
+    public void promoteYoungObjects() {
+        safepoint.run(() -> {
+            if (promote(sizePolicy.tenuringThreshold())) {
+                metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+                fullGC();
+            }
+        });
     }
 
-    public synchronized void promoteYoungObjects() {
-        System.out.println("Promoting Young Objects");
+    // only runs at a safepoint, right after a young collection compacted the young generation. Promotes the
+    // survivors as one batch: a first pass counts the ones old enough, and a second moves them to the free
+    // old slots, lowest first, while the others age and slide down. Once no free slot is left, a single bump
+    // of the old pointer reserves room for the rest.
+    // Returns whether some object old enough found no room in the old generation
+    private boolean promote(int tenuringThreshold) {
+        GcLog.debug("Promoting Young Objects");
+        long start = System.nanoTime();
+        int tenured = 0;
+        for (int i = 0; i < youngPointer; i++) {
+            if (youngHeap[i].age() >= tenuringThreshold) tenured++;
+        }
+        int promoted = 0;
+        // the room reserved above the old pointer
+        int next = 0;
+        int end = 0;
+        int top = 0;
         for (int i = 0; i < youngPointer; i++) {
-            if (youngHeap[i] != null && youngHeap[i].age >= promotionThreshold) {
-                GCObject obj = youngHeap[i];
-                youngHeap[i] = null;
-                allocateOld(obj);
-            } else if (youngHeap[i] != null) {
-                youngHeap[i].age++;
+            GCObject obj = youngHeap[i];
+            youngHeap[i] = null;
+            if (obj.age() >= tenuringThreshold) {
+                int index = next < end ? next++ : freeOldSlot();
+                if (index < 0) {
+                    // claims what is left when the old generation has no room for all of them
+                    next = bump(OLD_POINTER, tenured - promoted, oldHeap.length);
+                    end = oldPointer;
+                    if (next >= 0) index = next++;
+                    else next = end;
+                }
+                if (index >= 0) {
+                    placeOld(obj, index);
+                    promoted++;
+                    continue;
+                }
             }
+            obj.setAge(obj.age() + 1);
+            sizePolicy.recordSurvivor(obj.age());
+            youngHeap[top++] = obj;
         }
-        youngPointer = compact(youngHeap);
+        youngPointer = top;
+        // picked from the ages the survivors will have at the next collection
+        sizePolicy.computeTenuringThreshold(youngHeap.length);
+        metrics.promoted(promoted);
+        metrics.phase(GcMetrics.Phase.PROMOTE, start);
+        return promoted < tenured;
     }
 
+    // only runs at a safepoint, so one compactor serves both regions
     public int compact(GCObject[] heap) {
-        int ptr = 0;
-        for (int i = 0; i < heap.length; i++) {
-            if (heap[i] != null) {
-                heap[ptr++] = heap[i];
-                if (i != ptr - 1) heap[i] = null;
-            }
-        }
-        return ptr;
+        long start = System.nanoTime();
+        int live = compactor.compact(heap);
+        metrics.compacted(compactor.getMovedCount());
+        metrics.phase(GcMetrics.Phase.COMPACT, start);
+        return live;
     }
 
-    private void randomDeletion(GCObject[] heap) {
-        int pos;
-        do {
-            pos = random.nextInt(heap.length);
-        } while (heap[pos] == null || "Root".equals(heap[pos].id));
+    // where the object at index went in the last compaction, -1 if the index was empty
+    public int forwardingIndex(int index) {
+        return compactor.forwardingIndex(index);
+    }
 
-        System.out.println("Random Deletion: " + heap[pos].id );
-        heap[pos].printReferences( heap[pos]);
-        System.out.println();
-        actualDeletedIds.add(heap[pos].id);
+    private void randomDeletion(GCObject[] heap, int limit) {
+        if (!randomDeletion || limit == 0) return;
+        // scan on from a random position, since the young heap may hold nothing but roots before its first collection
+        int start = random.nextInt(limit);
+        int pos = start;
+        while (heap[pos] == null || "Root".equals(heap[pos].id())) {
+            pos = (pos + 1) % limit;
+            if (pos == start) return;
+        }
+
+        GCObject victim = heap[pos];
+        GcLog.debug(() -> "Random Deletion: " + victim.id());
+        GcLog.trace(() -> victim.describeReferences(victim));
+        liveBits.clear(heap[pos].slot);
+        if (isMarked(heap[pos].slot)) reachedVictims.add(heap[pos].slot);
+        else storage.free(heap[pos].slot);
         heap[pos] = null;
+        if (heap == oldHeap) sweeper.free(pos);
     }
 
     public void markAndSweep(GCObject[] heap, String heapName) throws InterruptedException {
-        List<Callable<Void>> markTasks = new CopyOnWriteArrayList<>();
-        for (GCObject root : rootObjects) {
-            markTasks.add(() -> {
-                synchronized (root) {
-                    mark(root);
-                }
-                return null;
-            });
+        GcLog.debug(() -> heapName + " Marking and Sweeping");
+
+        long start = System.nanoTime();
+        if (heap != youngHeap) parallelMark(claimRoots(rootObjects));
+        else if (!youngMarked) markYoung();
+        metrics.phase(GcMetrics.Phase.MARK, start);
+        // a full collection already processed the references of the young generation it collects next, and
+        // the marking dropped every reference to the victims it had already reached
+        if (heap != youngHeap || !youngMarked) {
+            processReferences(heap == youngHeap);
+            free(reachedVictims);
+        }
+        if (heap != youngHeap) freeLazilySwept();
+        youngMarked = false;
+        GcLog.trace(() -> heapName + " after parallel Marking\n" + describeHeap());
+
+        start = System.nanoTime();
+        // only a collection of the old generation learns how much of it is live; a young one keeps the last count
+        if (heap != youngHeap) oldLive = lazySweeping ? markBits.count(oldMark, liveBits, oldBits) : 0;
+        if (heap != youngHeap && lazySweeping && oldPointer - oldLive <= fragmentationThreshold * oldPointer) {
+            // the garbage stays where it is until allocation sweeps it
+            sweeper.start(oldPointer);
+            if (!sweeper.sweeping()) oldMark = !oldMark;
+            youngMarked = true;
+            metrics.phase(GcMetrics.Phase.SWEEP, start);
+            return;
+        }
+        int live = compactor.sweepAndCompact(heap, this::survives);
+        metrics.swept(compactor.getSweptCount());
+        metrics.compacted(compactor.getMovedCount());
+        // every object left in the region is marked, so flipping the mark value unmarks them all
+        if (heap == youngHeap) {
+            youngPointer = live;
+            youngMark = !youngMark;
+        } else {
+            oldPointer = oldLive = live;
+            sweeper.reset();
+            oldMark = !oldMark;
+            youngMarked = true;
         }
-        System.out.println(heapName+" Marking and Sweeping");
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+        GcLog.trace(() -> heapName + " after parallel sweep\n" + describeHeap());
+    }
 
-        executor.invokeAll(markTasks);
-        System.out.println(heapName+" after parallel Marking");
-        printHeap();
+    // the workers split the references between them, and trace from the soft referents kept alive in parallel
+    private void processReferences(boolean young) {
+        if (references.isEmpty()) return;
+        long start = System.nanoTime();
+        // a young collection leaves the old generation alone, so there only liveness counts
+        int cleared = references.process(slot -> young && oldBits.get(slot) ? isLive(slot) : isMarked(slot), this::isLive,
+                (oldHeap.length - oldPointer) / (double) oldHeap.length, referents -> {
+                    youngOnly = young;
+                    int[] claimed = new int[referents.length];
+                    int count = 0;
+                    for (int referent : referents) {
+                        if (tryMark(referent)) claimed[count++] = referent;
+                    }
+                    parallelMark(Arrays.copyOf(claimed, count));
+                    youngOnly = false;
+                });
+        metrics.cleared(cleared);
+        metrics.phase(GcMetrics.Phase.REFERENCE, start);
+    }
 
-        sweep(heap);
-        unmarkAll();
-        System.out.println(heapName+" after parallel sweep");
-        printHeap();
+    public void minorGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Minor GC:");
+            long start = System.nanoTime();
+            // set when this collection is the young half of a full one
+            boolean full = youngMarked;
+            metrics.beginCollection(GcMetrics.Kind.MINOR, youngPointer, oldPointer);
+            randomDeletion(youngHeap, youngPointer);
+            try {
+                markAndSweep(youngHeap,"Young Heap");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // age counts the young collections an object survived
+            boolean failed = promote(sizePolicy.tenuringThreshold());
+            resize(sizePolicy.youngCollectionEnd(start, youngPointer, youngHeap.length), oldHeap.length);
+            tlabEpoch++;
+            metrics.endCollection(youngPointer, oldPointer);
+            // as after a promotion failure in HotSpot, what found no room stays young and the whole heap is collected
+            if (failed && !full) fullGC();
+        });
     }
 
-    public synchronized void minorGC() {
-        System.out.println("Starting Minor GC:");
-        randomDeletion(youngHeap);
-        try {
-            markAndSweep(youngHeap,"Young Heap");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        youngPointer = compact(youngHeap);
+    public void fullGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Full GC:");
+            // the new marking needs the last one swept away
+            finishSweep();
+            metrics.beginCollection(GcMetrics.Kind.FULL, youngPointer, oldPointer);
+            randomDeletion(oldHeap, oldPointer);
+            try {
+                markAndSweep(oldHeap, "Old Heap");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the young collection reuses the full marking instead of tracing again
+            minorGC();
+            // a non-moving old generation cannot shrink below its bump pointer
+            resize(youngHeap.length, Math.max(oldPointer, sizePolicy.oldCollectionEnd(oldLive, oldHeap.length)));
+            metrics.endCollection(youngPointer, oldPointer);
+        });
     }
 
-    public synchronized void fullGC() {
-        System.out.println("Starting Full GC:");
-        randomDeletion(oldHeap);
-        try {
-            markAndSweep(oldHeap, "Old Heap");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        oldPointer = compact(oldHeap);
-        minorGC();
+    // only runs at a safepoint, when every object lies below its generation's pointer, so they all fit into the
+    // start of the new arrays. The young generation is only resized by a young collection, which retires every TLAB
+    private void resize(int youngSize, int oldSize) {
+        if (youngSize == youngHeap.length && oldSize == oldHeap.length) return;
+        GcLog.debug(() -> "Resizing heap: young " + youngHeap.length + " -> " + youngSize + ", old " + oldHeap.length + " -> " + oldSize);
+        youngHeap = Arrays.copyOf(youngHeap, youngSize);
+        oldHeap = Arrays.copyOf(oldHeap, oldSize);
+        sweeper.ensureCapacity(oldSize);
+        tlabSize = tlabSize(youngSize);
+        metrics.resized(youngSize, oldSize);
     }
 
     public void printHeap() {
-        System.out.println("Young Heap:");
+        System.out.println(describeHeap());
+    }
+
+    public String describeHeap() {
+        StringBuilder sb = new StringBuilder("Young Heap:\n");
         for (GCObject gcObject : youngHeap) {
-            System.out.print(gcObject != null ? gcObject : "[ ]");
+            sb.append(gcObject != null ? gcObject.toString(isMarked(gcObject.slot)) : "[ ]");
         }
-        System.out.println();
-
-        System.out.println("Old Heap:");
+        sb.append("\nOld Heap:\n");
         for (GCObject gcObject : oldHeap) {
-            System.out.print(gcObject != null ? gcObject : "[ ]");
+            sb.append(gcObject != null ? gcObject.toString(isMarked(gcObject.slot)) : "[ ]");
         }
-        System.out.println("\n");
+        return sb.append('\n').toString();
     }
 
     @Override
     public void shutdown() {
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+        workers.shutdown();
+    }
+
+    private int[] claimRoots(List<GCObject> roots) {
+        int[] claimed = new int[roots.size()];
+        int count = 0;
+        for (GCObject root : roots) {
+            if (isLive(root.slot) && tryMark(root.slot)) claimed[count++] = root.slot;
+        }
+        return Arrays.copyOf(claimed, count);
+    }
+
+    // every worker marks from the shared queue until it is empty and no worker holds work any more
+    private void parallelMark(int[] seeds) {
+        if (seeds.length == 0) return;
+        markQueue.add(new MarkWork(seeds, -1, 0, 0));
+        workers.run(worker -> markWorker(markStacks[worker]));
+        // what overflowing stacks dropped is rescanned on this thread alone, after the workers have stopped
+        // and no longer read or trim the reference lists
+        int from = -1;
+        for (MarkStack stack : markStacks) {
+            int dropped = stack.takeOverflow();
+            if (dropped >= 0 && (from < 0 || dropped < from)) from = dropped;
+        }
+        if (from >= 0) {
+            rescanMarked(from, markStacks[0]);
+            drainMarkStack(markStacks[0]);
+        }
+    }
+
+    private void markWorker(MarkStack stack) {
+        MarkWork work;
+        while ((work = takeMarkWork()) != null) {
+            try {
+                if (work.seeds != null) {
+                    for (int seed : work.seeds) stack.push(seed);
+                }
+                if (work.parent >= 0) {
+                    scanRange(work.parent, work.from, work.to, stack);
+                }
+                int slot;
+                while ((slot = stack.pop()) >= 0) {
+                    int count = storage.referenceCount(slot);
+                    if (count > REFERENCES_SPLIT) {
+                        // drop dangling edges before the list is shared between workers, which then only read it
+                        storage.retainReferences(slot, this::isLive);
+                        scanRange(slot, 0, storage.referenceCount(slot), stack);
+                    } else {
+                        scanReferences(slot, stack);
+                    }
+                    if (stack.size() > MARK_STACK_SPLIT && idleMarkers()) {
+                        // share the oldest half of the stack, which usually leads to the largest unscanned subgraphs
+                        markQueue.add(new MarkWork(stack.takeBottom(stack.size() / 2), -1, 0, 0));
+                    }
+                }
+            } finally {
+                activeMarkers.decrementAndGet();
             }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
         }
     }
-}
 
+    // the termination protocol of HotSpot's parallel marking, reduced to one shared queue: a worker counts itself
+    // active before it looks for work, so an empty queue with no active worker means that marking is over.
+    // Returns null then
+    private MarkWork takeMarkWork() {
+        for (int spins = 0; ; spins++) {
+            activeMarkers.incrementAndGet();
+            MarkWork work = markQueue.poll();
+            if (work != null) return work;
+            if (activeMarkers.decrementAndGet() == 0 && markQueue.isEmpty()) return null;
+            // yielding lets a virtual thread's carrier run the worker that holds the work
+            if (spins < MARK_SPINS) Thread.onSpinWait();
+            else Thread.yield();
+        }
+    }
+
+    private boolean idleMarkers() {
+        return activeMarkers.get() < numThreads;
+    }
+
+    private void scanRange(int slot, int start, int end, MarkStack stack) {
+        while (end - start > REFERENCES_SPLIT && idleMarkers()) {
+            int mid = (start + end) >>> 1;
+            markQueue.add(new MarkWork(null, slot, mid, end));
+            end = mid;
+        }
+        for (int i = start; i < end; i++) {
+            int child = storage.reference(slot, i);
+            if (isLive(child)) markReference(child, stack);
+        }
+    }
+
+    // a slice of a mark stack, or the references parent holds in [from, to)
+    private static final class MarkWork {
+        final int[] seeds;
+        final int parent;
+        final int from;
+        final int to;
+
+        MarkWork(int[] seeds, int parent, int from, int to) {
+            this.seeds = seeds;
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
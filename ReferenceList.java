@@ -0,0 +1,50 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// growable list of referenced slots: amortized O(1) append and in-place removal, no copy-on-write
+public class ReferenceList {
+    private static final int[] EMPTY = new int[0];
+    private static final int MIN_CAPACITY = 4;
+
+    private int[] refs = EMPTY;
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        return refs[index];
+    }
+
+    public void add(int ref) {
+        if (size == refs.length) {
+            refs = Arrays.copyOf(refs, Math.max(MIN_CAPACITY, size * 2));
+        }
+        refs[size++] = ref;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(refs, size);
+    }
+
+    // slides the kept references down over the dropped ones and returns how many were dropped
+    public int retainIf(IntPredicate keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int ref = refs[i];
+            if (keep.test(ref)) refs[kept++] = ref;
+        }
+        int removed = size - kept;
+        size = kept;
+        if (refs.length > MIN_CAPACITY && size < refs.length / 4) {
+            refs = Arrays.copyOf(refs, Math.max(MIN_CAPACITY, size * 2));
+        }
+        return removed;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
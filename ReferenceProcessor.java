@@ -0,0 +1,143 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+// soft, weak and phantom references as in java.lang.ref. A reference is an ordinary heap object whose edge to
+// its referent is kept here rather than in the heap storage, so marking never follows it; strong edges remain
+// the storage's references. After marking, a collection processes them in HotSpot's order: first the soft
+// references whose unreached referents the soft reference policy keeps are traced through, then every
+// reference whose referent is still unreached is cleared and posted to its queue, and the referent is swept
+// like any other garbage
+public class ReferenceProcessor {
+    public enum Type { SOFT, WEAK, PHANTOM }
+
+    // how many collections an unused soft reference survives while the old generation is entirely free, HotSpot's
+    // SoftRefLRUPolicyMSPerMB counted in collections instead of milliseconds per free megabyte so runs repeat
+    public static final int SOFT_LRU_COLLECTIONS = 32;
+    // references handed to a worker at a time
+    private static final int CHUNK = 256;
+
+    private static final class Entry {
+        final int reference;
+        // the slot generations of the reference object and the referent, since both slots may be freed and
+        // reused by other objects before the next collection processes the entry
+        final int generation;
+        final int referentGeneration;
+        final Type type;
+        final GcReferenceQueue queue;
+        // -1 once cleared
+        volatile int referent;
+        // the clock at the last get, for the soft reference policy
+        volatile long lastUse;
+
+        Entry(GCObject reference, int referent, int referentGeneration, Type type, GcReferenceQueue queue, long clock) {
+            this.reference = reference.slot;
+            this.generation = reference.generation;
+            this.referent = referent;
+            this.referentGeneration = referentGeneration;
+            this.type = type;
+            this.queue = queue;
+            this.lastUse = clock;
+        }
+    }
+
+    private final HeapStorage storage;
+    private final GcWorkers workers;
+    // keyed by the slot of the reference object
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // the number of collections that processed references
+    private volatile long clock = 0;
+
+    public ReferenceProcessor(HeapStorage storage, GcWorkers workers) {
+        this.storage = storage;
+        this.workers = workers;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // replaces any referent reference had before
+    public void set(GCObject reference, GCObject referent, Type type, GcReferenceQueue queue) {
+        if (reference.storage != storage || referent.storage != storage) {
+            throw new IllegalArgumentException("Cannot refer to " + referent.id() + " from " + reference.id() + ": both must be allocated in this heap");
+        }
+        if (reference.isReclaimed()) return;
+        if (referent.isReclaimed()) {
+            // a collection already found the referent unreachable, so the reference is cleared and posted at once
+            entries.put(reference.slot, new Entry(reference, -1, 0, type, queue, clock));
+            if (queue != null) queue.enqueue(reference);
+            return;
+        }
+        entries.put(reference.slot, new Entry(reference, referent.slot, referent.generation, type, queue, clock));
+    }
+
+    // null once cleared, and always for a phantom reference. Getting a soft referent counts as using it
+    public GCObject get(GCObject reference) {
+        Entry entry = reference.storage == storage && !reference.isReclaimed() ? entries.get(reference.slot) : null;
+        if (entry == null || entry.generation != reference.generation || entry.type == Type.PHANTOM) return null;
+        int referent = entry.referent;
+        if (referent < 0 || !holdsReferent(entry, referent)) return null;
+        if (entry.type == Type.SOFT) entry.lastUse = clock;
+        return new GCObject(storage, referent);
+    }
+
+    // runs at a safepoint right after marking. reached tells whether marking reached a slot, or for slots the
+    // collection does not collect, whether they are still live; live whether a slot may still be traced from.
+    // keepAlive marks through the referents handed to it. Returns the number of references cleared
+    public int process(IntPredicate reached, IntPredicate live, double oldFreeShare, Consumer<int[]> keepAlive) {
+        Entry[] all = entries.values().toArray(new Entry[0]);
+        int chunks = (all.length + CHUNK - 1) / CHUNK;
+        // the fuller the old generation, the sooner an unused soft reference is cleared
+        long interval = (long) (oldFreeShare * SOFT_LRU_COLLECTIONS);
+        ReferenceList[] kept = new ReferenceList[chunks];
+        workers.forEach(chunks, chunk -> {
+            ReferenceList keep = new ReferenceList();
+            for (int i = chunk * CHUNK, end = Math.min(i + CHUNK, all.length); i < end; i++) {
+                Entry entry = all[i];
+                int referent = entry.referent;
+                if (entry.type != Type.SOFT || referent < 0 || !holdsReference(entry) || !reached.test(entry.reference)) continue;
+                if (!holdsReferent(entry, referent)) continue;
+                if (!reached.test(referent) && live.test(referent) && clock - entry.lastUse <= interval) keep.add(referent);
+            }
+            kept[chunk] = keep;
+        });
+        ReferenceList keep = new ReferenceList();
+        for (ReferenceList list : kept) {
+            for (int i = 0; i < list.size(); i++) keep.add(list.get(i));
+        }
+        if (keep.size() > 0) keepAlive.accept(keep.toArray());
+
+        int[] cleared = new int[chunks];
+        workers.forEach(chunks, chunk -> {
+            for (int i = chunk * CHUNK, end = Math.min(i + CHUNK, all.length); i < end; i++) {
+                Entry entry = all[i];
+                if (!holdsReference(entry) || !reached.test(entry.reference)) {
+                    // the reference object itself is garbage, so nobody is left to tell
+                    entries.remove(entry.reference, entry);
+                    continue;
+                }
+                int referent = entry.referent;
+                // a referent whose slot was freed before this collection was found unreachable by an earlier one
+                if (referent < 0 || reached.test(referent) && holdsReferent(entry, referent)) continue;
+                entry.referent = -1;
+                cleared[chunk]++;
+                if (entry.queue != null) entry.queue.enqueue(new GCObject(storage, entry.reference));
+            }
+        });
+        clock++;
+        int total = 0;
+        for (int count : cleared) total += count;
+        return total;
+    }
+
+    // whether the slots still hold the objects the entry was made for
+    private boolean holdsReference(Entry entry) {
+        return storage.generation(entry.reference) == entry.generation;
+    }
+
+    private boolean holdsReferent(Entry entry, int referent) {
+        return storage.generation(referent) == entry.referentGeneration;
+    }
+}
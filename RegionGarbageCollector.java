@@ -0,0 +1,845 @@
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+// garbage-first collector in the style of G1: the heap is one array of equal-sized regions, each of them
+// free, eden, survivor or old. Every collection evacuates a collection set of regions into free ones:
+// all young regions, plus after a marking cycle the old regions with the most garbage (mixed collections),
+// as many as the pause target leaves room for. References into a region from old objects elsewhere are
+// kept in its remembered set, so a collection only scans its own regions and their remembered sets.
+// The marking cycle that finds those old regions runs concurrently with the mutators: a young pause
+// shades the roots, a background thread traces while allocation goes on, a snapshot-at-the-beginning
+// write barrier keeps the trace complete, and a short remark pause finishes it
+public class RegionGarbageCollector implements GarbageCollector {
+    public static final long DEFAULT_PAUSE_TARGET_MILLIS = 200;
+    // a marking cycle starts once old regions hold this fraction of the heap (G1's InitiatingHeapOccupancyPercent)
+    private static final double INITIATING_OCCUPANCY = 0.45;
+    // old regions with more live objects than this are not worth evacuating (G1MixedGCLiveThresholdPercent)
+    private static final double MIXED_LIVE_THRESHOLD = 0.85;
+    private static final double MAX_YOUNG_FRACTION = 0.6;
+    // weight of the latest pause in the cost per object used to predict the next one
+    private static final double PREDICTION_WEIGHT = 0.3;
+    // objects the marking thread traces per turn on the collector monitor before letting mutators in again
+    private static final int CONCURRENT_MARK_STEP = 256;
+    // a full collection that leaves less of the heap free than this expands it (G1's MinHeapFreeRatio)
+    private static final double MIN_FREE_FRACTION = 0.4;
+
+    private HeapRegion[] regions;
+    // the heap never grows past this many regions
+    private final int maxRegions;
+    private final int regionSize;
+    private final Deque<HeapRegion> freeRegions = new ArrayDeque<>();
+    // eden and survivor regions, all of them collected by the next collection
+    private List<HeapRegion> youngRegions = new ArrayList<>();
+    private int edenRegions = 0;
+    // old regions picked by the last marking cycle, most garbage first, waiting for mixed collections
+    private final Deque<HeapRegion> candidates = new ArrayDeque<>();
+    private boolean[] inCollectionSet;
+    private HeapRegion edenRegion;
+    private HeapRegion oldRegion;
+    // where the running evacuation copies survivors and promoted objects to
+    private HeapRegion survivorDestination;
+    private HeapRegion oldDestination;
+    private List<HeapRegion> survivorRegions;
+    // region index of every slot, -1 until the object is placed
+    private int[] regionOf = new int[0];
+    // the slots of the live objects packed at the front, so randomReference draws one in a single step, and
+    // where each slot is in it, -1 once its object died
+    private int[] liveSlots = new int[0];
+    private int[] livePosition = new int[0];
+    private int liveCount = 0;
+    private SplittableRandom random = new SplittableRandom();
+    private final int promotionThreshold;
+    private final long pauseTargetNanos;
+    private int maxYoungRegions;
+    private int youngTarget;
+    // predicted cost of evacuating one object of the collection set, 0 until the first collection measured it
+    private double nanosPerObject = 0;
+    private int promoted = 0;
+    private final HeapBitmap liveBits;
+    private final HeapBitmap markBits;
+    private final HeapStorage storage;
+    private final List<GCObject> rootObjects = new ArrayList<>();
+    // also the evacuation's work list of copied objects, which are not marked, so it never drops a slot
+    private final MarkStack markStack = MarkStack.unbounded();
+    private final Safepoint safepoint = new Safepoint();
+    private final GcMetrics metrics;
+    private boolean randomDeletion = true;
+    // set from the initial mark until the remark pause or an abort; the marking state is only touched under the monitor
+    private boolean marking = false;
+    // grey objects of the running marking cycle, and the targets the write barrier logged for it
+    private MarkStack concurrentMarkStack = new MarkStack();
+    private MarkStack satbQueue = MarkStack.unbounded();
+    private Thread marker;
+    private long markingStart;
+    // set while the marking thread waits for the monitor, which is not fair: busy mutators would starve it
+    private volatile boolean markerWaiting = false;
+
+    public RegionGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold) {
+        this(youngSize, oldSize, rootObjectsQuantity, promotionThreshold, defaultRegionSize(youngSize + oldSize),
+                DEFAULT_PAUSE_TARGET_MILLIS, new ObjectHeapStorage());
+    }
+
+    // the heap holds at least youngSize + oldSize objects; youngSize only sets the young generation's initial
+    // size, after that it follows the pause target
+    public RegionGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold,
+                                  int regionSize, long pauseTargetMillis, HeapStorage storage) {
+        this(youngSize, oldSize, rootObjectsQuantity, promotionThreshold, regionSize, pauseTargetMillis, youngSize + oldSize, storage);
+    }
+
+    // full collections that leave too little free grow the heap by whole regions, up to maxHeapSize objects
+    public RegionGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold,
+                                  int regionSize, long pauseTargetMillis, int maxHeapSize, HeapStorage storage) {
+        this.storage = storage;
+        this.regionSize = regionSize;
+        // both generations round up to whole regions
+        int regionCount = (youngSize + regionSize - 1) / regionSize + (oldSize + regionSize - 1) / regionSize;
+        maxRegions = Math.max(regionCount, (maxHeapSize + regionSize - 1) / regionSize);
+        regions = new HeapRegion[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            regions[i] = new HeapRegion(i, regionSize);
+            freeRegions.add(regions[i]);
+        }
+        inCollectionSet = new boolean[regionCount];
+        maxYoungRegions = Math.max(1, (int) (regionCount * MAX_YOUNG_FRACTION));
+        youngTarget = Math.max(1, Math.min(maxYoungRegions, youngSize / regionSize));
+        liveBits = new HeapBitmap(regionCount * regionSize);
+        markBits = new HeapBitmap(regionCount * regionSize);
+        storage.setWriteBarrier(new WriteBarrier() {
+            public void referenceStored(int from, int to) {
+                RegionGarbageCollector.this.referenceStored(from, to);
+            }
+
+            public void referenceRemoved(int from, int to) {
+                if (marking) satbQueue.push(to);
+            }
+        });
+        this.promotionThreshold = promotionThreshold;
+        this.pauseTargetNanos = pauseTargetMillis * 1_000_000;
+        // regions change generation freely, so both generations may grow to the whole heap
+        metrics = new GcMetrics(regionCount * regionSize, regionCount * regionSize);
+        setRootObjects(rootObjectsQuantity);
+    }
+
+    // about 64 regions of a power of two size, like G1 aiming at 2048 for real heaps
+    public static int defaultRegionSize(int heapSize) {
+        return Math.max(4, Integer.highestOneBit(Math.max(1, heapSize / 64)));
+    }
+
+    public SplittableRandom getRandom() {
+        return this.random;
+    }
+
+    public synchronized void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    public void setRootObjects(int rootObjectsQuantity) {
+        for (int i = 0; i < rootObjectsQuantity; i++) {
+            GCObject gcObject = new GCObject("Root");
+            this.allocateYoung(gcObject);
+            rootObjects.add(gcObject);
+        }
+    }
+
+    private void assignSlot(GCObject object) {
+        if (object.storage == storage) return;
+        if (object.storage != null) {
+            throw new IllegalArgumentException(object.id() + " was already allocated by another collector");
+        }
+        object.bind(storage);
+        liveBits.ensureCapacity(storage.size());
+        markBits.ensureCapacity(storage.size());
+        if (regionOf.length < storage.size()) {
+            int length = regionOf.length;
+            regionOf = Arrays.copyOf(regionOf, Math.max(storage.size(), length * 2));
+            Arrays.fill(regionOf, length, regionOf.length, -1);
+            liveSlots = Arrays.copyOf(liveSlots, regionOf.length);
+            livePosition = Arrays.copyOf(livePosition, regionOf.length);
+            Arrays.fill(livePosition, length, livePosition.length, -1);
+        }
+        setLive(object.slot);
+        // a freed slot handed out again may still carry the mark of its last object
+        markBits.clear(object.slot);
+    }
+
+    private void setLive(int slot) {
+        liveBits.set(slot);
+        livePosition[slot] = liveCount;
+        liveSlots[liveCount++] = slot;
+    }
+
+    // the last live slot takes the place of the dead one
+    private void clearLive(int slot) {
+        liveBits.clear(slot);
+        int position = livePosition[slot];
+        if (position < 0) return;
+        int last = liveSlots[--liveCount];
+        liveSlots[position] = last;
+        livePosition[last] = position;
+        livePosition[slot] = -1;
+    }
+
+    // post-write barrier: an old object that now references an object in another region is added to that
+    // region's remembered set. While marking, the stored object is logged as well: the snapshot only covers
+    // what the roots reached, and a mutator may store an object it still holds but the snapshot missed
+    private void referenceStored(int from, int to) {
+        if (marking) satbQueue.push(to);
+        int fromRegion = regionOf[from];
+        int toRegion = regionOf[to];
+        if (fromRegion < 0 || toRegion < 0 || fromRegion == toRegion) return;
+        if (regions[fromRegion].type == HeapRegion.Type.OLD) regions[toRegion].rememberedSet.add(from);
+    }
+
+    public HeapStorage storage() {
+        return storage;
+    }
+
+    private void place(HeapRegion region, GCObject object) {
+        region.add(object);
+        regionOf[object.slot] = region.index;
+    }
+
+    private HeapRegion takeFreeRegion(HeapRegion.Type type) {
+        HeapRegion region = freeRegions.poll();
+        if (region != null) region.type = type;
+        return region;
+    }
+
+    // as in the serial collector, every mutator entry point holds the collector monitor
+    public synchronized void allocateYoung(GCObject object) {
+        GcLog.debug(() -> "Allocating in Eden: " + object.id());
+        yieldToMarker();
+        assignSlot(object);
+        if (edenRegion == null || edenRegion.isFull()) edenRegion = newEdenRegion();
+        place(edenRegion, object);
+        shade(object.slot);
+        randomReference(object);
+        GcLog.trace(() -> "Print Heap After allocation: \n" + describeHeap());
+    }
+
+    // a young collection starts once eden reached its target size, or when one more eden region would leave
+    // too few free regions to evacuate the young ones into
+    private HeapRegion newEdenRegion() {
+        if (edenRegions >= youngTarget || freeRegions.size() - 1 < youngRegions.size() + 1 + 2) {
+            metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+            minorGC();
+        }
+        if (freeRegions.isEmpty()) {
+            metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+            fullGC();
+        }
+        HeapRegion region = takeFreeRegion(HeapRegion.Type.EDEN);
+        if (region == null) throw new IllegalStateException("Heap exhausted: no free region left for eden" + atMaximum());
+        youngRegions.add(region);
+        edenRegions++;
+        return region;
+    }
+
+    public synchronized void allocateOld(GCObject object) {
+        GcLog.debug(() -> "Allocating in Old Heap: " + object.id());
+        assignSlot(object);
+        if (oldRegion == null || oldRegion.isFull()) {
+            oldRegion = takeFreeRegion(HeapRegion.Type.OLD);
+            if (oldRegion == null) {
+                metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+                fullGC();
+                if (!liveBits.get(object.slot)) {
+                    GcLog.info("Object was deleted during full GC, skipping allocation");
+                    return;
+                }
+                if (oldRegion == null || oldRegion.isFull()) oldRegion = takeFreeRegion(HeapRegion.Type.OLD);
+                if (oldRegion == null) throw new IllegalStateException("Heap exhausted: no free region left for " + object.id() + atMaximum());
+            }
+        }
+        place(oldRegion, object);
+        shade(object.slot);
+        recordReferences(object.slot);
+        GcLog.debug(() -> "Allocated Old: " + object + " in " + oldRegion);
+    }
+
+    public void randomReference(GCObject newObject) {
+        if (newObject.id().equals("Root")) {
+            return;
+        }
+        // regions hold dead objects and stale copies of evacuated ones until they are collected, so the draw
+        // goes over the live slots, which are always packed
+        if (liveCount == 0) return;
+        GCObject target = new GCObject(storage, liveSlots[this.getRandom().nextInt(liveCount)]);
+        target.addReference(newObject);
+        GcLog.debug(() -> "Added Ref " + newObject.id() + " as reference to " + target.id());
+    }
+
+    public synchronized void addReference(GCObject from, GCObject to) {
+        from.addReference(to);
+    }
+
+    public synchronized void removeReference(GCObject from, GCObject to) {
+        from.removeReference(to);
+    }
+
+    public synchronized void release(GCObject object) {
+        if (object.isReclaimed()) return;
+        GcLog.debug(() -> "Released: " + object.id());
+        clearLive(object.slot);
+    }
+
+    public void setRandomDeletion(boolean enabled) {
+        this.randomDeletion = enabled;
+    }
+
+    public List<GCObject> rootObjects() {
+        return Collections.unmodifiableList(rootObjects);
+    }
+
+    public Safepoint safepoint() {
+        return safepoint;
+    }
+
+    public GcMetrics metrics() {
+        return metrics;
+    }
+
+    // marks through the same bits as the marking cycle, so a running cycle is given up
+    public synchronized void mark(GCObject obj) {
+        abortMarking();
+        markFrom(obj, markStack);
+    }
+
+    public boolean isLive(int slot) {
+        return liveBits.get(slot);
+    }
+
+    public boolean tryMark(int slot) {
+        if (markBits.get(slot)) return false;
+        markBits.set(slot);
+        return true;
+    }
+
+    public boolean isMarked(int slot) {
+        return markBits.get(slot);
+    }
+
+    public void sweep(GCObject[] heapRegion) {
+        int swept = 0;
+        for (int i = 0; i < heapRegion.length; i++) {
+            if (heapRegion[i] != null && !markBits.get(heapRegion[i].slot)) {
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + heapRegion[i].id());
+                clearLive(heapRegion[i].slot);
+                regionOf[heapRegion[i].slot] = -1;
+                storage.free(heapRegion[i].slot);
+                heapRegion[i] = null;
+                swept++;
+            }
+        }
+        metrics.swept(swept);
+    }
+
+    public synchronized void unmarkAll() {
+        abortMarking();
+        markBits.clearAll();
+    }
+
+    private void markRoots() {
+        abortMarking();
+        markBits.clearAll();
+        for (GCObject root : rootObjects) {
+            mark(root);
+        }
+    }
+
+    // regions are marked together, so this marks the whole heap and then sweeps the given region
+    public void markAndSweep(GCObject[] heap, String heapName) {
+        GcLog.debug(() -> heapName + " Marking and Sweeping");
+        long start = System.nanoTime();
+        markRoots();
+        metrics.phase(GcMetrics.Phase.MARK, start);
+        start = System.nanoTime();
+        sweep(heap);
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+    }
+
+    // young objects are promoted while they are evacuated, so promoting them means running a young collection
+    public void promoteYoungObjects() {
+        minorGC();
+    }
+
+    public int compact(GCObject[] heap) {
+        long start = System.nanoTime();
+        int compactPointer = 0;
+        int moved = 0;
+        for (int i = 0; i < heap.length; i++) {
+            if (heap[i] != null) {
+                heap[compactPointer++] = heap[i];
+                if (i != compactPointer - 1) {
+                    heap[i] = null;
+                    moved++;
+                }
+            }
+        }
+        metrics.compacted(moved);
+        metrics.phase(GcMetrics.Phase.COMPACT, start);
+        return compactPointer;
+    }
+
+    private int occupancy(boolean young) {
+        int objects = 0;
+        for (HeapRegion region : regions) {
+            if (region.type != HeapRegion.Type.FREE && region.isYoung() == young) objects += region.top;
+        }
+        return objects;
+    }
+
+    // all young regions, then old candidates while the predicted pause stays within the target. The
+    // evacuation needs a free region for every region it collects plus one partly filled region for
+    // survivors and one for promoted objects, so the collection set never outgrows the free regions
+    private List<HeapRegion> chooseCollectionSet() {
+        List<HeapRegion> collectionSet = new ArrayList<>(youngRegions);
+        int available = freeRegions.size() - 2;
+        if (collectionSet.size() > available) return null;
+        double budget = pauseTargetNanos - nanosPerObject * occupancy(true);
+        int old = 0;
+        while (!candidates.isEmpty() && collectionSet.size() < available) {
+            HeapRegion region = candidates.peek();
+            double cost = nanosPerObject * (region.live + region.rememberedSet.size());
+            // a mixed collection takes at least one old region, however long it is predicted to take
+            if (old > 0 && cost > budget) break;
+            candidates.poll();
+            if (region.type != HeapRegion.Type.OLD) continue;
+            collectionSet.add(region);
+            budget -= cost;
+            old++;
+        }
+        return collectionSet;
+    }
+
+    // copies every live object reachable from the roots or the remembered sets out of the collection set,
+    // returning how many objects the collection set held
+    private int evacuate(List<HeapRegion> collectionSet) {
+        int objects = 0;
+        for (HeapRegion region : collectionSet) {
+            inCollectionSet[region.index] = true;
+            objects += region.top;
+        }
+        survivorDestination = null;
+        oldDestination = null;
+        survivorRegions = new ArrayList<>();
+        promoted = 0;
+        for (GCObject root : rootObjects) {
+            if (!liveBits.get(root.slot)) continue;
+            if (inCollectionSet[regionOf[root.slot]]) evacuateObject(root.slot);
+            else scan(root.slot);
+        }
+        for (HeapRegion region : collectionSet) {
+            for (int from : region.rememberedSet) {
+                int fromRegion = regionOf[from];
+                if (liveBits.get(from) && !inCollectionSet[fromRegion] && regions[fromRegion].type == HeapRegion.Type.OLD) {
+                    scan(from);
+                }
+            }
+        }
+        int slot;
+        while ((slot = markStack.pop()) >= 0) {
+            scan(slot);
+        }
+        return objects;
+    }
+
+    private void evacuateObject(int slot) {
+        if (!liveBits.get(slot) || !inCollectionSet[regionOf[slot]]) return;
+        HeapRegion source = regions[regionOf[slot]];
+        GCObject object = new GCObject(storage, slot);
+        boolean tenured = source.type == HeapRegion.Type.OLD;
+        if (source.isYoung()) {
+            int age = object.age() + 1;
+            object.setAge(age);
+            tenured = age >= promotionThreshold;
+        }
+        HeapRegion destination = tenured ? oldDestination() : survivorDestination();
+        if (destination.type == HeapRegion.Type.OLD && source.isYoung()) promoted++;
+        place(destination, object);
+        markStack.push(slot);
+    }
+
+    // survivors beyond a survivor space of an eighth of the young target are promoted early
+    private HeapRegion survivorDestination() {
+        if (survivorDestination == null || survivorDestination.isFull()) {
+            if (survivorRegions.size() >= Math.max(1, youngTarget / 8)) return oldDestination();
+            survivorDestination = takeFreeRegion(HeapRegion.Type.SURVIVOR);
+            survivorRegions.add(survivorDestination);
+        }
+        return survivorDestination;
+    }
+
+    private HeapRegion oldDestination() {
+        if (oldDestination == null || oldDestination.isFull()) oldDestination = takeFreeRegion(HeapRegion.Type.OLD);
+        return oldDestination;
+    }
+
+    // evacuates what slot references and keeps the remembered sets up to date for an old slot
+    private void scan(int slot) {
+        boolean old = regions[regionOf[slot]].type == HeapRegion.Type.OLD;
+        boolean dangling = false;
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (!liveBits.get(child)) {
+                dangling = true;
+                continue;
+            }
+            evacuateObject(child);
+            if (old) recordReference(slot, child);
+        }
+        if (dangling) storage.retainReferences(slot, this::isLive);
+    }
+
+    private void recordReference(int from, int to) {
+        int target = regionOf[to];
+        if (target != regionOf[from] && !inCollectionSet[target]) regions[target].rememberedSet.add(from);
+    }
+
+    private void recordReferences(int slot) {
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (liveBits.get(child) && regionOf[child] >= 0) recordReference(slot, child);
+        }
+    }
+
+    // whatever is still in an evacuated region is dead; the regions go back to the free list
+    private int freeCollectionSet(List<HeapRegion> collectionSet) {
+        int dead = 0;
+        for (HeapRegion region : collectionSet) {
+            for (int i = 0; i < region.top; i++) {
+                GCObject object = region.objects[i];
+                if (object == null || regionOf[object.slot] != region.index) continue;
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+                clearLive(object.slot);
+                regionOf[object.slot] = -1;
+                storage.free(object.slot);
+                dead++;
+            }
+            inCollectionSet[region.index] = false;
+            if (region == oldRegion) oldRegion = null;
+            region.free();
+            freeRegions.add(region);
+        }
+        edenRegion = null;
+        edenRegions = 0;
+        youngRegions = survivorRegions;
+        return dead;
+    }
+
+    // sizes the young generation so that the next young collection is predicted to meet the pause target
+    private void adapt(long pauseNanos, int objects) {
+        double measured = (double) pauseNanos / Math.max(1, objects);
+        nanosPerObject = nanosPerObject == 0 ? measured : PREDICTION_WEIGHT * measured + (1 - PREDICTION_WEIGHT) * nanosPerObject;
+        long regionsWithinTarget = (long) (pauseTargetNanos / (nanosPerObject * regionSize));
+        youngTarget = (int) Math.max(1, Math.min(maxYoungRegions, regionsWithinTarget));
+    }
+
+    private void randomDeletion(List<HeapRegion> from) {
+        if (!randomDeletion || from.isEmpty()) return;
+        HeapRegion region = from.get(this.getRandom().nextInt(from.size()));
+        for (int i = 0; i < region.top; i++) {
+            GCObject victim = region.objects[(i + this.getRandom().nextInt(region.top)) % region.top];
+            if (victim == null || !liveBits.get(victim.slot) || "Root".equals(victim.id())) continue;
+            GcLog.debug(() -> "Random Deletion: " + victim.id());
+            GcLog.trace(() -> victim.describeReferences(victim));
+            clearLive(victim.slot);
+            return;
+        }
+    }
+
+    // a young collection, or a mixed one while the last marking cycle left old candidates
+    public synchronized void minorGC() {
+        safepoint.run(() -> {
+            List<HeapRegion> collectionSet = chooseCollectionSet();
+            if (collectionSet == null) {
+                GcLog.info("Not enough free regions to evacuate the young generation, collecting the whole heap");
+                metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+                fullGC();
+                return;
+            }
+            boolean mixed = collectionSet.size() > youngRegions.size();
+            GcLog.info(mixed ? "Starting Mixed GC:" : "Starting Minor GC:");
+            long pauseStart = System.nanoTime();
+            metrics.beginCollection(mixed ? GcMetrics.Kind.MIXED : GcMetrics.Kind.MINOR, occupancy(true), occupancy(false));
+            GcLog.debug(() -> "Collection set: " + collectionSet);
+            randomDeletion(youngRegions);
+            long start = System.nanoTime();
+            int objects = evacuate(collectionSet);
+            metrics.phase(GcMetrics.Phase.COPY, start);
+            start = System.nanoTime();
+            metrics.swept(freeCollectionSet(collectionSet));
+            metrics.promoted(promoted);
+            metrics.phase(GcMetrics.Phase.SWEEP, start);
+            adapt(System.nanoTime() - pauseStart, objects);
+            // like G1's concurrent start, the initial mark rides on the pause of a young collection
+            if (!marking && candidates.isEmpty() && occupancy(false) > INITIATING_OCCUPANCY * regions.length * regionSize) {
+                initialMark();
+            }
+            metrics.endCollection(occupancy(true), occupancy(false));
+            GcLog.trace(() -> "Heap after evacuation\n" + describeHeap());
+        });
+    }
+
+    // only shades the roots; the marking thread traces the rest while the mutators run
+    private void initialMark() {
+        GcLog.info("Starting Concurrent Marking:");
+        long start = System.nanoTime();
+        markBits.clearAll();
+        concurrentMarkStack = new MarkStack();
+        satbQueue = MarkStack.unbounded();
+        marking = true;
+        for (GCObject root : rootObjects) shade(root.slot);
+        markingStart = start;
+        marker = new Thread(this::concurrentMark, "gc-concurrent-mark");
+        marker.setDaemon(true);
+        marker.start();
+        metrics.phase(GcMetrics.Phase.MARK, start);
+    }
+
+    // objects allocated while marking start out grey, so the snapshot covers them without a barrier
+    private void shade(int slot) {
+        if (marking && liveBits.get(slot) && tryMark(slot)) concurrentMarkStack.push(slot);
+    }
+
+    // the storages are not safe to read while a mutator writes them, so the marking thread holds the monitor
+    // for a bounded step at a time, and then leaves it to the mutators for at least as long
+    private void concurrentMark() {
+        long stepNanos;
+        while (true) {
+            markerWaiting = true;
+            synchronized (this) {
+                markerWaiting = false;
+                notifyAll();
+                if (!marking || marker != Thread.currentThread()) return;
+                long start = System.nanoTime();
+                if (markStep()) {
+                    remark();
+                    return;
+                }
+                stepNanos = System.nanoTime() - start;
+            }
+            LockSupport.parkNanos(stepNanos);
+        }
+    }
+
+    // allocating mutators step aside while the marking thread asks for the monitor
+    private void yieldToMarker() {
+        while (markerWaiting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // traces up to CONCURRENT_MARK_STEP objects, returning true once nothing is left to trace
+    private boolean markStep() {
+        drainSatbQueue();
+        for (int i = 0; i < CONCURRENT_MARK_STEP; i++) {
+            int slot = concurrentMarkStack.pop();
+            // the remark rescans for whatever an overflow of the stack dropped
+            if (slot < 0) return satbQueue.isEmpty();
+            // a young collection may have freed it since it was shaded
+            if (liveBits.get(slot)) scanReferences(slot, concurrentMarkStack);
+        }
+        return false;
+    }
+
+    private void drainSatbQueue() {
+        int slot;
+        while ((slot = satbQueue.pop()) >= 0) shade(slot);
+    }
+
+    // a full collection marks from scratch, so a running cycle is dropped and its thread exits
+    private void abortMarking() {
+        if (!marking) return;
+        GcLog.info("Concurrent Marking aborted");
+        marking = false;
+        marker = null;
+        concurrentMarkStack = new MarkStack();
+        satbQueue = MarkStack.unbounded();
+    }
+
+    // finishes the trace with whatever the barrier logged since the last step, then frees the old regions
+    // left without live objects and ranks the others by garbage for the mixed collections that follow.
+    // Everything unmarked was unreachable at the initial mark and was never stored since
+    private void remark() {
+        safepoint.run(() -> {
+            GcLog.info(() -> String.format("Concurrent Marking took %.3f ms, starting Remark:", (System.nanoTime() - markingStart) / 1e6));
+            metrics.beginCollection(GcMetrics.Kind.REMARK, occupancy(true), occupancy(false));
+            long start = System.nanoTime();
+            drainSatbQueue();
+            drainMarkStack(concurrentMarkStack);
+            marking = false;
+            marker = null;
+            metrics.phase(GcMetrics.Phase.MARK, start);
+            start = System.nanoTime();
+            int swept = 0;
+            List<HeapRegion> ranked = new ArrayList<>();
+            for (HeapRegion region : regions) {
+                if (region.type == HeapRegion.Type.FREE) continue;
+                region.live = 0;
+                for (int i = 0; i < region.top; i++) {
+                    GCObject object = region.objects[i];
+                    if (object == null) continue;
+                    if (markBits.get(object.slot)) region.live++;
+                    else clearLive(object.slot);
+                }
+                region.rememberedSet.removeIf(from -> !liveBits.get(from));
+                if (region.type != HeapRegion.Type.OLD || region == oldRegion) continue;
+                if (region.live == 0) {
+                    swept += region.top;
+                    freeSlots(region);
+                    region.free();
+                    freeRegions.add(region);
+                } else if (region.live < MIXED_LIVE_THRESHOLD * regionSize) {
+                    ranked.add(region);
+                }
+            }
+            ranked.sort(Comparator.comparingInt(HeapRegion::garbage).reversed());
+            candidates.addAll(ranked);
+            metrics.swept(swept);
+            metrics.phase(GcMetrics.Phase.SWEEP, start);
+            metrics.endCollection(occupancy(true), occupancy(false));
+            GcLog.debug(() -> "Mixed collection candidates: " + candidates);
+        });
+    }
+
+    // the storage slots of the objects in a region the remark found without live objects
+    private void freeSlots(HeapRegion region) {
+        for (int i = 0; i < region.top; i++) {
+            GCObject object = region.objects[i];
+            if (object == null) continue;
+            regionOf[object.slot] = -1;
+            storage.free(object.slot);
+        }
+    }
+
+    // stop-the-world fallback when evacuation has no room left: marks the whole heap and slides every live
+    // object towards the first region, after which all of them are old
+    public synchronized void fullGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Full GC:");
+            metrics.beginCollection(GcMetrics.Kind.FULL, occupancy(true), occupancy(false));
+            randomDeletion(Arrays.asList(regions));
+            long start = System.nanoTime();
+            markRoots();
+            metrics.phase(GcMetrics.Phase.MARK, start);
+            start = System.nanoTime();
+            int destination = 0;
+            int destinationTop = 0;
+            int swept = 0;
+            int moved = 0;
+            for (HeapRegion region : regions) {
+                for (int i = 0; i < region.top; i++) {
+                    GCObject object = region.objects[i];
+                    if (object == null) continue;
+                    region.objects[i] = null;
+                    if (!markBits.get(object.slot)) {
+                        if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+                        clearLive(object.slot);
+                        regionOf[object.slot] = -1;
+                        storage.free(object.slot);
+                        swept++;
+                        continue;
+                    }
+                    if (destinationTop == regionSize) {
+                        destination++;
+                        destinationTop = 0;
+                    }
+                    if (destination != region.index || destinationTop != i) moved++;
+                    regions[destination].objects[destinationTop++] = object;
+                    regionOf[object.slot] = destination;
+                }
+            }
+            freeRegions.clear();
+            candidates.clear();
+            youngRegions = new ArrayList<>();
+            edenRegion = null;
+            edenRegions = 0;
+            oldRegion = null;
+            for (HeapRegion region : regions) {
+                region.rememberedSet.clear();
+                region.live = 0;
+                if (region.index < destination || (region.index == destination && destinationTop > 0)) {
+                    region.top = region.index < destination ? regionSize : destinationTop;
+                    region.type = HeapRegion.Type.OLD;
+                } else {
+                    region.top = 0;
+                    region.type = HeapRegion.Type.FREE;
+                    freeRegions.add(region);
+                }
+            }
+            if (destinationTop > 0 && destinationTop < regionSize) oldRegion = regions[destination];
+            for (HeapRegion region : regions) {
+                for (int i = 0; i < region.top; i++) recordReferences(region.objects[i].slot);
+            }
+            expand();
+            metrics.swept(swept);
+            metrics.compacted(moved);
+            metrics.phase(GcMetrics.Phase.SWEEP, start);
+            metrics.endCollection(occupancy(true), occupancy(false));
+            GcLog.trace(() -> "Heap after full GC\n" + describeHeap());
+        });
+    }
+
+    // grows the heap after a full collection until MIN_FREE_FRACTION of it is free again, as far as maxRegions
+    // allows. The new regions are free and go after the compacted ones, so region indexes stay valid
+    private void expand() {
+        int used = regions.length - freeRegions.size();
+        int wanted = Math.min(maxRegions, (int) Math.ceil(used / (1 - MIN_FREE_FRACTION)));
+        if (wanted <= regions.length) return;
+        GcLog.info("Expanding the heap from " + regions.length + " to " + wanted + " regions");
+        int regionCount = regions.length;
+        regions = Arrays.copyOf(regions, wanted);
+        for (int i = regionCount; i < wanted; i++) {
+            regions[i] = new HeapRegion(i, regionSize);
+            freeRegions.add(regions[i]);
+        }
+        inCollectionSet = Arrays.copyOf(inCollectionSet, wanted);
+        maxYoungRegions = Math.max(1, (int) (wanted * MAX_YOUNG_FRACTION));
+        metrics.resized(wanted * regionSize, wanted * regionSize);
+    }
+
+    private String atMaximum() {
+        return regions.length < maxRegions ? "" : " in a heap at its maximum of " + maxRegions + " regions ("
+                + maxRegions * regionSize + " objects)";
+    }
+
+    // stops a running marking cycle; the thread exits at its next step
+    @Override
+    public void shutdown() {
+        Thread running;
+        synchronized (this) {
+            running = marker;
+            abortMarking();
+        }
+        if (running == null) return;
+        try {
+            running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void printHeap() {
+        System.out.println(describeHeap());
+    }
+
+    public String describeHeap() {
+        StringBuilder sb = new StringBuilder();
+        for (HeapRegion region : regions) {
+            if (region.type == HeapRegion.Type.FREE) continue;
+            sb.append(region).append('\n');
+            for (int i = 0; i < region.top; i++) {
+                GCObject object = region.objects[i];
+                sb.append(object != null ? object.toString(markBits.get(object.slot)) : "[ ]");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
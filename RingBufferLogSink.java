@@ -0,0 +1,87 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// log sink for any number of writing threads: a writer claims a sequence number with one atomic add and
+// stores its line in that ring slot, a single background thread drains the ring into a buffered file
+public class RingBufferLogSink implements GcLog.Sink, AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final long IDLE_PARK_NANOS = 100_000;
+
+    private final AtomicReferenceArray<String> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    // next sequence the background thread drains, only written by that thread
+    private volatile long drained = 0;
+    private volatile boolean closed = false;
+    private final BufferedWriter out;
+    private final Thread drainer;
+
+    public RingBufferLogSink(String file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    public RingBufferLogSink(String file, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two (got " + capacity + ")");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+        drainer = new Thread(this::drain, "gc-log-writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    public void write(GcLog.Level level, String message) {
+        String line = System.currentTimeMillis() + " " + level + " [" + Thread.currentThread().getName() + "] " + message;
+        long sequence = claimed.getAndIncrement();
+        // a full ring applies back pressure instead of dropping lines
+        while (sequence - drained > mask) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        ring.set((int) sequence & mask, line);
+    }
+
+    private void drain() {
+        try {
+            long next = 0;
+            while (true) {
+                int index = (int) next & mask;
+                String line = ring.get(index);
+                if (line == null) {
+                    // either idle or a writer claimed the slot and has not stored its line yet
+                    if (closed && next == claimed.get()) break;
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                ring.set(index, null);
+                drained = ++next;
+                out.write(line);
+                out.newLine();
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // drains what was written so far and closes the file
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// stop-the-world handshake: mutators bracket heap mutations with enter/leave, which only touch an
+// atomic counter until an operation requests the safepoint; run waits until no mutator is inside
+public class Safepoint {
+    private static final int SPINS_BEFORE_PARKING = 1000;
+    private static final long PARK_NANOS = 50_000;
+
+    private final AtomicInteger activeMutators = new AtomicInteger();
+    private final ReentrantLock operations = new ReentrantLock();
+    private final Queue<Thread> waitingMutators = new ConcurrentLinkedQueue<>();
+    private volatile boolean requested = false;
+    private volatile Thread operationThread;
+
+    // only written by the thread holding the operations lock
+    private volatile long operationCount = 0;
+    private volatile long totalTimeToSafepointNanos = 0;
+    private volatile long maxTimeToSafepointNanos = 0;
+    private volatile long totalPauseNanos = 0;
+    private volatile long maxPauseNanos = 0;
+
+    public void enter() {
+        while (true) {
+            activeMutators.incrementAndGet();
+            // the thread running the operation may allocate as part of it, e.g. while promoting
+            if (!requested || operationThread == Thread.currentThread()) return;
+            leave();
+            awaitRelease();
+        }
+    }
+
+    public void leave() {
+        if (activeMutators.decrementAndGet() == 0 && requested) {
+            Thread waiter = operationThread;
+            if (waiter != null) LockSupport.unpark(waiter);
+        }
+    }
+
+    private void awaitRelease() {
+        Thread current = Thread.currentThread();
+        waitingMutators.add(current);
+        while (requested) {
+            LockSupport.park(this);
+        }
+        waitingMutators.remove(current);
+    }
+
+    // the caller must not be between enter and leave; operations started from inside an operation run directly
+    public void run(Runnable operation) {
+        if (operations.isHeldByCurrentThread()) {
+            operation.run();
+            return;
+        }
+        operations.lock();
+        long requestedAt = System.nanoTime();
+        try {
+            operationThread = Thread.currentThread();
+            requested = true;
+            int spins = 0;
+            while (activeMutators.get() > 0) {
+                if (++spins < SPINS_BEFORE_PARKING) Thread.onSpinWait();
+                else LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            long timeToSafepoint = System.nanoTime() - requestedAt;
+            totalTimeToSafepointNanos += timeToSafepoint;
+            maxTimeToSafepointNanos = Math.max(maxTimeToSafepointNanos, timeToSafepoint);
+            operation.run();
+        } finally {
+            requested = false;
+            operationThread = null;
+            for (Thread waiter : waitingMutators) LockSupport.unpark(waiter);
+            long pause = System.nanoTime() - requestedAt;
+            totalPauseNanos += pause;
+            maxPauseNanos = Math.max(maxPauseNanos, pause);
+            operationCount++;
+            operations.unlock();
+        }
+    }
+
+    public long getOperationCount() {
+        return operationCount;
+    }
+
+    public long getTotalTimeToSafepointNanos() {
+        return totalTimeToSafepointNanos;
+    }
+
+    public long getMaxTimeToSafepointNanos() {
+        return maxTimeToSafepointNanos;
+    }
+
+    public long getTotalPauseNanos() {
+        return totalPauseNanos;
+    }
+
+    public long getMaxPauseNanos() {
+        return maxPauseNanos;
+    }
+}
@@ -1,27 +1,91 @@
 import java.util.*;
 
 public class SerialGarbageCollector implements GarbageCollector {
-    private final GCObject[] youngHeap;
-    private final GCObject[] oldHeap;
+    // replaced by larger or smaller copies when the size policy resizes a generation
+    private GCObject[] youngHeap;
+    private GCObject[] oldHeap;
     private int youngPointer = 0;
     private int oldPointer = 0;
-    private final Random random;
-    private final int promotionThreshold;
-    private final Set<String> actualDeletedIds = new HashSet<>();
+    private SplittableRandom random = new SplittableRandom();
+    private final AdaptiveSizePolicy sizePolicy;
+    private final HeapBitmap liveBits;
+    private final HeapBitmap markBits;
+    // set for objects in the old generation, and cleared when a freed slot is handed out again
+    private final HeapBitmap oldBits;
+    private final CardTable cardTable;
+    // free old slots and the pending sweep while the old generation is non-moving, see setLazySweeping
+    private final LazySweeper sweeper;
+    // storage slots of the objects the lazy sweep dropped. An old object may have been given a reference to one
+    // of them after the marking that found it dead, so they are only freed after the next full marking
+    private final ReferenceList lazilySwept = new ReferenceList();
+    // random deletion victims the full marking before them had already reached. Objects it scanned may still
+    // reference them, so they are only freed after the next marking
+    private final ReferenceList reachedVictims = new ReferenceList();
+    private boolean lazySweeping = false;
+    private double fragmentationThreshold = LazySweeper.DEFAULT_FRAGMENTATION_THRESHOLD;
+    // live old objects as of the last full collection
+    private int oldLive = 0;
+    // while set, marking stops at old objects
+    private boolean youngOnly = false;
+    // the mark bit value that means "marked" in each generation; it flips after the generation is swept,
+    // which unmarks every survivor without a clearing pass
+    private boolean youngMark = true;
+    private boolean oldMark = true;
+    // set by a full collection, whose marks also cover the young generation it collects next
+    private boolean youngMarked = false;
+    private final HeapStorage storage;
     private final List<GCObject> rootObjects = new ArrayList<>();
+    private final MarkStack markStack = new MarkStack();
+    private final ReferenceProcessor references;
+    private final Safepoint safepoint = new Safepoint();
+    private final GcMetrics metrics;
+    private boolean randomDeletion = true;
 
     public SerialGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold ) {
+        this(youngSize, oldSize, rootObjectsQuantity, promotionThreshold, new ObjectHeapStorage());
+    }
+
+    public SerialGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, int promotionThreshold, HeapStorage storage) {
+        this(youngSize, oldSize, rootObjectsQuantity, AdaptiveSizePolicy.fixedSize(youngSize, oldSize, promotionThreshold), storage);
+    }
+
+    // the generations start at youngSize and oldSize; the size policy resizes them and picks the tenuring threshold
+    public SerialGarbageCollector(int youngSize, int oldSize, int rootObjectsQuantity, AdaptiveSizePolicy sizePolicy, HeapStorage storage) {
+        this.storage = storage;
         youngHeap = new GCObject[youngSize];
         oldHeap = new GCObject[oldSize];
-        random = new Random();
-        this.promotionThreshold = promotionThreshold;
+        liveBits = new HeapBitmap(youngSize + oldSize);
+        markBits = new HeapBitmap(youngSize + oldSize);
+        oldBits = new HeapBitmap(youngSize + oldSize);
+        cardTable = new CardTable(liveBits.capacity());
+        sweeper = new LazySweeper(oldSize);
+        storage.setWriteBarrier(this::referenceStored);
+        references = new ReferenceProcessor(storage, GcWorkers.serial());
+        this.sizePolicy = sizePolicy;
+        metrics = new GcMetrics(youngSize, oldSize);
         setRootObjects(rootObjectsQuantity);
     }
 
-    public Random getRandom(){
+    public SplittableRandom getRandom(){
         return this.random;
     }
 
+    public synchronized void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    // a non-moving old generation: full collections only mark, and allocation in the old generation sweeps
+    // their garbage lazily. The old generation is compacted only once more than fragmentationThreshold of
+    // the space below its bump pointer is free or garbage
+    public synchronized void setLazySweeping(boolean enabled, double fragmentationThreshold) {
+        if (fragmentationThreshold < 0 || fragmentationThreshold > 1) {
+            throw new IllegalArgumentException("fragmentationThreshold must be between 0 and 1 (got " + fragmentationThreshold + ")");
+        }
+        finishSweep();
+        this.lazySweeping = enabled;
+        this.fragmentationThreshold = fragmentationThreshold;
+    }
+
     public void setRootObjects(int rootObjectsQuantity){
         for(int i = 0; i < rootObjectsQuantity; i++){
             GCObject gcObject = new GCObject("Root");
@@ -32,190 +96,520 @@ public class SerialGarbageCollector implements GarbageCollector {
 
     }
 
-    public void allocateYoung(GCObject object){
-        System.out.println("Allocating in Young Heap: "+object.id);
-        System.out.println("Print Heap before allocation: ");
-        printHeap();
+    private void assignSlot(GCObject object) {
+        if (object.storage == storage) return;
+        if (object.storage != null) {
+            throw new IllegalArgumentException(object.id() + " was already allocated by another collector");
+        }
+        object.bind(storage);
+        liveBits.ensureCapacity(storage.size());
+        markBits.ensureCapacity(storage.size());
+        oldBits.ensureCapacity(storage.size());
+        cardTable.ensureCapacity(liveBits.capacity());
+        liveBits.set(object.slot);
+        oldBits.clear(object.slot);
+    }
+
+    // post-write barrier: remembers old objects that now reference a young one
+    private void referenceStored(int from, int to) {
+        if (oldBits.get(from) && !oldBits.get(to)) cardTable.dirty(from);
+    }
+
+    public HeapStorage storage() {
+        return storage;
+    }
+
+    // every mutator entry point holds the collector monitor, so a collection started from one of them
+    // already has all other mutators stopped at the monitor
+    public synchronized void allocateYoung(GCObject object){
+        GcLog.debug(() -> "Allocating in Young Heap: " + object.id());
+        assignSlot(object);
+        GcLog.trace(() -> "Print Heap before allocation: \n" + describeHeap());
         if(youngPointer < youngHeap.length){
             randomReference(object);
+            markBits.put(object.slot, !youngMark);
             youngHeap[youngPointer++] = object;
-            promoteYoungObjects();
-            System.out.println("Print Heap After allocation: ");
-            printHeap();
+            GcLog.trace(() -> "Print Heap After allocation: \n" + describeHeap());
             return;
         }
+        metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
         minorGC();
+        // the size policy grows the young generation past its survivors unless it is already at its maximum.
+        // Then they are all tenured whatever their age, after a full collection if the old generation is full
+        if (youngPointer == youngHeap.length && promote(0)) {
+            metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+            fullGC();
+            promote(0);
+        }
+        if (youngPointer == youngHeap.length) {
+            throw new IllegalStateException("Heap exhausted: the young generation is still full of survivors, cannot allocate " + object.id());
+        }
         randomReference(object);
+        // placed after the collection flipped the mark value, so the object has to be unmarked again
+        markBits.put(object.slot, !youngMark);
         youngHeap[youngPointer++] = object;
-        promoteYoungObjects();
-        System.out.println("Print Heap After allocation: ");
-        printHeap();
+        GcLog.trace(() -> "Print Heap After allocation: \n" + describeHeap());
     }
 
-    public void allocateOld(GCObject object){
-        System.out.println("Allocating in Old Heap: "+object.id);
-        if(oldPointer < oldHeap.length){
-            oldHeap[oldPointer++] = object;
-            System.out.println("Allocated Old: " + object);
-            System.out.println("Old Pointer: " + oldPointer);
-            return;
+    public synchronized void allocateOld(GCObject object){
+        GcLog.debug(() -> "Allocating in Old Heap: " + object.id());
+        assignSlot(object);
+        int index = oldSlot();
+        if(index < 0){
+            // the full collection grows the old generation unless it is already at its maximum
+            metrics.cause(GcMetrics.Cause.ALLOCATION_FAILURE);
+            fullGC();
+            if(!liveBits.get(object.slot)){
+                GcLog.info("Object was deleted during full GC, skipping allocation");
+                return;
+            }
+            index = oldSlot();
+            if (index < 0) {
+                throw new IllegalStateException("Heap exhausted: the old generation is still full after a full GC, cannot allocate " + object.id());
+            }
         }
-        fullGC();
-        if(actualDeletedIds.contains(object.id)){
-            System.out.println("Object was deleted during full GC, skipping allocation");
-            return;
+        placeOld(object, index);
+        GcLog.debug(() -> "Allocated Old: " + object + "\nOld Pointer: " + oldPointer);
+    }
+
+    // the lowest free old slot, then the bump pointer; -1 when the old generation is full
+    private int oldSlot() {
+        int index = freeOldSlot();
+        return index >= 0 || oldPointer == oldHeap.length ? index : oldPointer++;
+    }
+
+    // the lowest free old slot, sweeping on while a pending sweep may still free one
+    private int freeOldSlot() {
+        int index;
+        while ((index = sweeper.take()) < 0 && sweeper.sweeping()) {
+            sweepOld();
         }
-        oldHeap[oldPointer++] = object;
-        System.out.println("Allocated Old: " + object);
-        System.out.println("Old Pointer: " + oldPointer);
+        return index;
+    }
+
+    // one step of the lazy sweep, timed as a sweep phase of its own. Once the sweep is done every object left
+    // in the old generation is marked, so flipping the mark value unmarks them all
+    private void sweepOld() {
+        long start = System.nanoTime();
+        metrics.swept(sweeper.sweep(oldHeap, this::survives));
+        if (!sweeper.sweeping()) oldMark = !oldMark;
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+    }
+
+    private void finishSweep() {
+        while (sweeper.sweeping()) sweepOld();
+    }
 
+    private void placeOld(GCObject object, int index) {
+        oldBits.set(object.slot);
+        // allocated black while a sweep is pending, so the sweep keeps it and the flip at its end unmarks it
+        markBits.put(object.slot, sweeper.sweeping() ? oldMark : !oldMark);
+        // a promoted object may still reference young objects
+        if (storage.referenceCount(object.slot) > 0) cardTable.dirty(object.slot);
+        oldHeap[index] = object;
     }
     public void randomReference(GCObject newObject){
-        if(newObject.id.equals("Root")){
+        if(newObject.id().equals("Root")){
+            return;
+        }
+        // both generations are compacted below their pointers, but for the free slots of a non-moving old
+        // generation. A free slot falls back to the closest object below it
+        int objects = youngPointer + oldPointer;
+        GCObject target = null;
+        int randomIndex = objects == 0 ? 0 : this.getRandom().nextInt(objects);
+        for (int i = 0; i < objects && target == null; i++, randomIndex = randomIndex == 0 ? objects - 1 : randomIndex - 1) {
+            target = randomIndex < youngPointer ? youngHeap[randomIndex] : oldHeap[randomIndex - youngPointer];
+        }
+        if (target == null) {
             return;
         }
-        GCObject target;
-        int randomIndex;
-        do{
-             randomIndex = this.getRandom().nextInt(youngHeap.length + oldHeap.length);
-            if(randomIndex < youngHeap.length){
-                target = youngHeap[randomIndex];
-            }else{
-                target = oldHeap[randomIndex - youngHeap.length];
-            }
-        }while (target == null);
         target.addReference(newObject);
-        System.out.println("Added Ref " + newObject.id + " as reference to " + target.id);
+        GCObject referrer = target;
+        GcLog.debug(() -> "Added Ref " + newObject.id() + " as reference to " + referrer.id());
 
     }
-    public void mark(GCObject obj) {
-        mark(obj, null); // overload para manter a API atual
+    public synchronized void addReference(GCObject from, GCObject to) {
+        from.addReference(to);
     }
 
+    public synchronized void removeReference(GCObject from, GCObject to) {
+        from.removeReference(to);
+    }
 
-    private void mark(GCObject obj, GCObject parent) {
+    public synchronized void release(GCObject object) {
+        if (object.isReclaimed()) return;
+        GcLog.debug(() -> "Released: " + object.id());
+        liveBits.clear(object.slot);
+    }
 
-        if (actualDeletedIds.contains(obj.id)) {
-            if (parent != null) {
+    public synchronized void setReferent(GCObject reference, GCObject referent, ReferenceProcessor.Type type, GcReferenceQueue queue) {
+        references.set(reference, referent, type, queue);
+    }
 
-                parent.references.removeIf(r -> actualDeletedIds.contains(r.id));
-            }
-            actualDeletedIds.remove(obj.id);
-            return;
-        }
+    public synchronized GCObject getReferent(GCObject reference) {
+        return references.get(reference);
+    }
 
-        if (obj.marked) return;
+    public void setRandomDeletion(boolean enabled) {
+        this.randomDeletion = enabled;
+    }
 
-        obj.marked = true;
+    public synchronized HeapSnapshot snapshot() {
+        finishSweep();
+        return HeapSnapshot.capture(storage, youngHeap, youngPointer, oldHeap, oldPointer, rootObjects, this::isLive);
+    }
 
-        for (GCObject child : obj.references) {
-            mark(child, obj);
+    public synchronized void restore(GCObject object, boolean old, boolean root) {
+        assignSlot(object);
+        if (old ? oldPointer == oldHeap.length : youngPointer == youngHeap.length) {
+            throw new IllegalStateException("Heap exhausted: the snapshot does not fit into the " + (old ? "old" : "young") + " generation");
         }
+        if (old) {
+            placeOld(object, oldPointer++);
+        } else {
+            markBits.put(object.slot, !youngMark);
+            youngHeap[youngPointer++] = object;
+        }
+        if (root) rootObjects.add(object);
+    }
+
+    public List<GCObject> rootObjects() {
+        return Collections.unmodifiableList(rootObjects);
+    }
+
+    public Safepoint safepoint() {
+        return safepoint;
+    }
+
+    public GcMetrics metrics() {
+        return metrics;
+    }
+
+    public void mark(GCObject obj) {
+        markFrom(obj, markStack);
+    }
+
+    public boolean isLive(int slot) {
+        // garbage the pending sweep has not reached yet is as dead as swept garbage
+        return liveBits.get(slot) && !(sweeper.sweeping() && oldBits.get(slot) && !isMarked(slot));
+    }
+
+    public boolean tryMark(int slot) {
+        boolean old = oldBits.get(slot);
+        if (youngOnly && old) return false;
+        boolean mark = old ? oldMark : youngMark;
+        if (markBits.get(slot) == mark) return false;
+        markBits.put(slot, mark);
+        return true;
+    }
+
+    public boolean isMarked(int slot) {
+        return markBits.get(slot) == (oldBits.get(slot) ? oldMark : youngMark);
     }
     public void sweep(GCObject[] heapRegion){
+        int swept = 0;
         for(int i = 0; i < heapRegion.length; i++){
-           // System.out.println("Analyzing: " + heapRegion[i].id + "Status: "+heapRegion[i].marked);
-            if(heapRegion[i]!= null && !heapRegion[i].marked){
-                System.out.println("Removing: " + heapRegion[i].id);
-                actualDeletedIds.add(heapRegion[i].id);
+            if(heapRegion[i]!= null && !isMarked(heapRegion[i].slot)){
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + heapRegion[i].id());
+                liveBits.clear(heapRegion[i].slot);
+                storage.free(heapRegion[i].slot);
                 heapRegion[i] = null;
+                swept++;
             }
         }
+        metrics.swept(swept);
+    }
+    public void unmarkAll(){
+        finishSweep();
+        markBits.fill(oldBits, !youngMark, !oldMark);
+    }
+
+    // sweep callback of the lazy sweep
+    private boolean survives(GCObject object) {
+        if (isMarked(object.slot)) return true;
+        if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+        liveBits.clear(object.slot);
+        lazilySwept.add(object.slot);
+        return false;
+    }
+
+    // right after a full marking, which dropped every reference to the objects the lazy sweep found dead
+    private void freeLazilySwept() {
+        free(lazilySwept);
+    }
+
+    private void free(ReferenceList slots) {
+        for (int i = 0; i < slots.size(); i++) storage.free(slots.get(i));
+        slots.clear();
     }
-    public void unmkark(){
-        for (GCObject object : youngHeap) {
-            if (object != null) {
-                object.marked = false;
+
+    // sweep and compact in one pass: unmarked objects are dropped and the survivors slide down behind them
+    private int sweepAndCompact(GCObject[] heap) {
+        int top = 0;
+        int swept = 0;
+        int moved = 0;
+        for (int i = 0; i < heap.length; i++) {
+            GCObject object = heap[i];
+            if (object == null) continue;
+            if (!isMarked(object.slot)) {
+                if (GcLog.DEBUG) GcLog.debug("Removing: " + object.id());
+                liveBits.clear(object.slot);
+                storage.free(object.slot);
+                heap[i] = null;
+                swept++;
+                continue;
+            }
+            if (i != top) {
+                heap[top] = object;
+                heap[i] = null;
+                moved++;
             }
+            top++;
         }
-        for (GCObject object : oldHeap) {
-            if (object != null) {
-                object.marked = false;
+        metrics.swept(swept);
+        metrics.compacted(moved);
+        return top;
+    }
+
+    // minor collections trace from the roots and the old objects on dirty cards, and stop at old objects,
+    // so their cost follows the young live set instead of the whole heap
+    private void markYoung() {
+        youngOnly = true;
+        GcLog.debug(() -> "Dirty cards: " + cardTable.dirtyCards());
+        for (GCObject root : rootObjects) {
+            if (oldBits.get(root.slot)) markYoungReferences(root.slot);
+            else mark(root);
+        }
+        cardTable.processDirtyCards(storage.size(), this::markYoungReferences);
+        youngOnly = false;
+    }
+
+    // marks what a live old object keeps alive in the young generation, returning whether it references any young
+    // object. References to dead objects are dropped here, since the collection frees their slots
+    private boolean markYoungReferences(int slot) {
+        if (!oldBits.get(slot) || !isLive(slot)) return false;
+        boolean young = false;
+        boolean dangling = false;
+        for (int i = 0, count = storage.referenceCount(slot); i < count; i++) {
+            int child = storage.reference(slot, i);
+            if (!isLive(child)) {
+                dangling = true;
+                continue;
             }
+            if (oldBits.get(child)) continue;
+            young = true;
+            markReference(child, markStack);
         }
+        if (dangling) storage.retainReferences(slot, this::isLive);
+        drainMarkStack(markStack);
+        return young;
     }
-    public void promoteYoungObjects() {
-        System.out.println("Promoting Young Objects");
+    // every young collection promotes; this only runs the promotion on its own
+    public synchronized void promoteYoungObjects() {
+        if (promote(sizePolicy.tenuringThreshold())) {
+            metrics.cause(GcMetrics.Cause.PROMOTION_FAILURE);
+            fullGC();
+        }
+    }
+
+    // promotes the young survivors as one batch: a first pass counts the ones old enough, and a second moves
+    // them to the free old slots, lowest first, while the others age and slide down. Once no free slot is
+    // left, a single bump of the old pointer reserves room for the rest. The young generation is compact
+    // after every collection, so there are no holes to skip.
+    // Returns whether some object old enough found no room in the old generation
+    private boolean promote(int tenuringThreshold) {
+        GcLog.debug("Promoting Young Objects");
+        long start = System.nanoTime();
+        int tenured = 0;
         for (int i = 0; i < youngPointer; i++) {
-            if (youngHeap[i] != null && youngHeap[i].age >= promotionThreshold) {
-                GCObject obj = youngHeap[i];
-                youngHeap[i] = null;
-                allocateOld(obj);
-            } else if (youngHeap[i] != null) {
-                youngHeap[i].age++;
+            if (youngHeap[i].age() >= tenuringThreshold) tenured++;
+        }
+        int promoted = 0;
+        // the room reserved above the old pointer
+        int next = 0;
+        int end = 0;
+        int top = 0;
+        for (int i = 0; i < youngPointer; i++) {
+            GCObject obj = youngHeap[i];
+            youngHeap[i] = null;
+            if (obj.age() >= tenuringThreshold) {
+                int index = next < end ? next++ : freeOldSlot();
+                if (index < 0) {
+                    next = oldPointer;
+                    end = oldPointer = Math.min(oldPointer + tenured - promoted, oldHeap.length);
+                    if (next < end) index = next++;
+                }
+                if (index >= 0) {
+                    placeOld(obj, index);
+                    promoted++;
+                    continue;
+                }
             }
+            obj.setAge(obj.age() + 1);
+            sizePolicy.recordSurvivor(obj.age());
+            youngHeap[top++] = obj;
         }
-        youngPointer = compact(youngHeap);
-
+        youngPointer = top;
+        // picked from the ages the survivors will have at the next collection
+        sizePolicy.computeTenuringThreshold(youngHeap.length);
+        metrics.promoted(promoted);
+        metrics.phase(GcMetrics.Phase.PROMOTE, start);
+        return promoted < tenured;
     }
 
     public int compact(GCObject[] heap) {
+        long start = System.nanoTime();
         int compactPointer = 0;
+        int moved = 0;
         for (int i = 0; i < heap.length; i++) {
             if (heap[i] != null) {
                 heap[compactPointer++] = heap[i];
-                if (i != compactPointer - 1) heap[i] = null;
+                if (i != compactPointer - 1) {
+                    heap[i] = null;
+                    moved++;
+                }
             }
         }
-
+        metrics.compacted(moved);
+        metrics.phase(GcMetrics.Phase.COMPACT, start);
         return compactPointer;
     }
 
 
-    private void randomDeletion(GCObject[] heap) {
-        int position;
-        do {
-            position = this.getRandom().nextInt(heap.length);
-        } while (heap[position] == null || "Root".equals(heap[position].id));
-        System.out.println("Random Deletion: " + heap[position].id);
-    //    System.out.println(heap[position].id +" references: "+ heap[position].references);
-        heap[position].printReferences( heap[position]);
-        System.out.println();
-        this.actualDeletedIds.add(heap[position].id);
+    private void randomDeletion(GCObject[] heap, int limit) {
+        if (!randomDeletion || limit == 0) return;
+        // scan on from a random position, so a region holding nothing but roots does not spin forever
+        int start = this.getRandom().nextInt(limit);
+        int position = start;
+        while (heap[position] == null || "Root".equals(heap[position].id())) {
+            position = (position + 1) % limit;
+            if (position == start) return;
+        }
+        GCObject victim = heap[position];
+        GcLog.debug(() -> "Random Deletion: " + victim.id());
+        GcLog.trace(() -> victim.describeReferences(victim));
+        liveBits.clear(heap[position].slot);
+        if (isMarked(heap[position].slot)) reachedVictims.add(heap[position].slot);
+        else storage.free(heap[position].slot);
         heap[position] = null;
+        if (heap == oldHeap) sweeper.free(position);
     }
 
     public void markAndSweep(GCObject[] heap, String heapName)  {
-        System.out.println(heapName+" Marking and Sweeping");
-        for(GCObject obj : rootObjects){
-            mark(obj);
+        GcLog.debug(() -> heapName + " Marking and Sweeping");
+        long start = System.nanoTime();
+        if (heap != youngHeap) {
+            for(GCObject obj : rootObjects){
+                mark(obj);
+            }
+        } else if (!youngMarked) {
+            markYoung();
+        }
+        metrics.phase(GcMetrics.Phase.MARK, start);
+        // a full collection already processed the references of the young generation it collects next, and
+        // the marking dropped every reference to the victims it had already reached
+        if (heap != youngHeap || !youngMarked) {
+            processReferences(heap == youngHeap);
+            free(reachedVictims);
+        }
+        if (heap != youngHeap) freeLazilySwept();
+        youngMarked = false;
+        GcLog.trace(() -> heapName + " after Marking\n" + describeHeap());
+        start = System.nanoTime();
+        // every object left in the region is marked, so flipping the mark value unmarks them all
+        if (heap == youngHeap) {
+            youngPointer = sweepAndCompact(heap);
+            youngMark = !youngMark;
+        } else {
+            oldLive = lazySweeping ? markBits.count(oldMark, liveBits, oldBits) : 0;
+            if (lazySweeping && oldPointer - oldLive <= fragmentationThreshold * oldPointer) {
+                // the garbage stays where it is until allocation sweeps it
+                sweeper.start(oldPointer);
+                if (!sweeper.sweeping()) oldMark = !oldMark;
+            } else {
+                oldPointer = oldLive = sweepAndCompact(heap);
+                sweeper.reset();
+                oldMark = !oldMark;
+            }
+            youngMarked = true;
         }
-        System.out.println(heapName+" after Marking");
-        printHeap();
-        sweep(heap);
-        unmkark();
-        System.out.println(heapName+" after sweep");
-        printHeap();
+        metrics.phase(GcMetrics.Phase.SWEEP, start);
+        GcLog.trace(() -> heapName + " after sweep\n" + describeHeap());
     }
 
-    public void minorGC() {
-        System.out.println("Starting Minor GC:");
-        randomDeletion(youngHeap);
-        markAndSweep(youngHeap, "Young Heap");
-        youngPointer = compact(youngHeap);
+    private void processReferences(boolean young) {
+        if (references.isEmpty()) return;
+        long start = System.nanoTime();
+        // a young collection leaves the old generation alone, so there only liveness counts
+        int cleared = references.process(slot -> young && oldBits.get(slot) ? isLive(slot) : isMarked(slot), this::isLive,
+                (oldHeap.length - oldPointer) / (double) oldHeap.length, referents -> {
+                    youngOnly = young;
+                    for (int referent : referents) markReference(referent, markStack);
+                    drainMarkStack(markStack);
+                    youngOnly = false;
+                });
+        metrics.cleared(cleared);
+        metrics.phase(GcMetrics.Phase.REFERENCE, start);
+    }
 
+    public synchronized void minorGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Minor GC:");
+            long start = System.nanoTime();
+            // set when this collection is the young half of a full one
+            boolean full = youngMarked;
+            metrics.beginCollection(GcMetrics.Kind.MINOR, youngPointer, oldPointer);
+            randomDeletion(youngHeap, youngPointer);
+            markAndSweep(youngHeap, "Young Heap");
+            // age counts the young collections an object survived
+            boolean failed = promote(sizePolicy.tenuringThreshold());
+            resize(sizePolicy.youngCollectionEnd(start, youngPointer, youngHeap.length), oldHeap.length);
+            metrics.endCollection(youngPointer, oldPointer);
+            // as after a promotion failure in HotSpot, what found no room stays young and the whole heap is collected
+            if (failed && !full) fullGC();
+        });
     }
 
-    public void fullGC() {
-        System.out.println("Starting Full GC:");
-        randomDeletion(oldHeap);
-        markAndSweep(oldHeap, "Old Heap");
-        oldPointer = compact(oldHeap);
-        minorGC();
+    public synchronized void fullGC() {
+        safepoint.run(() -> {
+            GcLog.info("Starting Full GC:");
+            // the new marking needs the last one swept away
+            finishSweep();
+            metrics.beginCollection(GcMetrics.Kind.FULL, youngPointer, oldPointer);
+            randomDeletion(oldHeap, oldPointer);
+            markAndSweep(oldHeap, "Old Heap");
+            // the young collection reuses the full marking instead of tracing again
+            minorGC();
+            // a non-moving old generation cannot shrink below its bump pointer
+            resize(youngHeap.length, Math.max(oldPointer, sizePolicy.oldCollectionEnd(oldLive, oldHeap.length)));
+            metrics.endCollection(youngPointer, oldPointer);
+        });
+    }
+
+    // every object lies below its generation's pointer, so they all fit into the start of the new arrays
+    private void resize(int youngSize, int oldSize) {
+        if (youngSize == youngHeap.length && oldSize == oldHeap.length) return;
+        GcLog.debug(() -> "Resizing heap: young " + youngHeap.length + " -> " + youngSize + ", old " + oldHeap.length + " -> " + oldSize);
+        youngHeap = Arrays.copyOf(youngHeap, youngSize);
+        oldHeap = Arrays.copyOf(oldHeap, oldSize);
+        sweeper.ensureCapacity(oldSize);
+        metrics.resized(youngSize, oldSize);
     }
 
     public void printHeap(){
-        System.out.println("Young Heap");
+        System.out.println(describeHeap());
+    }
+
+    public String describeHeap(){
+        StringBuilder sb = new StringBuilder("Young Heap\n");
         for (GCObject gcObject : youngHeap) {
-            System.out.print(gcObject != null ? gcObject : "[ ]");
+            sb.append(gcObject != null ? gcObject.toString(isMarked(gcObject.slot)) : "[ ]");
         }
-        System.out.println();
-        System.out.println("Old Heap: ");
+        sb.append("\nOld Heap: \n");
         for (GCObject object : oldHeap) {
-            System.out.print(object != null ? object : "[ ]");
+            sb.append(object != null ? object.toString(isMarked(object.slot)) : "[ ]");
         }
-        System.out.println();
-        System.out.println();
+        return sb.append('\n').toString();
     }
 
 
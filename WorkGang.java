@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+// persistent GC workers in the style of HotSpot's WorkGang. The threads live as long as the collector and wait
+// for the next phase spinning first and parking only then, so the phases of one collection hand over without
+// a wakeup. A phase is handed over by publishing its task and bumping the phase number; the caller runs
+// worker 0 and then waits at the barrier for the last of the others, which unparks it
+public class WorkGang implements GcWorkers {
+    // about as long as a short phase takes; waiting longer than this parks the thread. Spinning on a single CPU
+    // only keeps the thread being waited for from running
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 12 : 0;
+
+    // workers 1 .. n-1
+    private final Thread[] threads;
+    private volatile IntConsumer task;
+    private volatile int phase = 0;
+    private final AtomicInteger unfinished = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile Thread coordinator;
+    private volatile boolean shutdown = false;
+
+    public WorkGang(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1 (got " + threads + ")");
+        this.threads = new Thread[threads - 1];
+        for (int i = 1; i < threads; i++) {
+            int worker = i;
+            Thread thread = new Thread(() -> work(worker), "gc-worker-" + worker);
+            thread.setDaemon(true);
+            this.threads[i - 1] = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public int parallelism() {
+        return threads.length + 1;
+    }
+
+    // one phase at a time; the collector only runs them at a safepoint anyway
+    @Override
+    public synchronized void run(IntConsumer task) {
+        if (shutdown) throw new IllegalStateException("GC workers are shut down");
+        if (threads.length > 0) {
+            coordinator = Thread.currentThread();
+            this.task = task;
+            unfinished.set(threads.length);
+            // the volatile write publishes the task to the workers that see the new phase
+            phase++;
+            for (Thread thread : threads) LockSupport.unpark(thread);
+        }
+        try {
+            task.accept(0);
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+        for (int spins = 0; unfinished.get() > 0; spins++) {
+            if (spins < SPINS) Thread.onSpinWait();
+            else LockSupport.park(this);
+        }
+        this.task = null;
+        Throwable failed = failure.getAndSet(null);
+        if (failed != null) throw new IllegalStateException("GC worker failed", failed);
+    }
+
+    private void work(int worker) {
+        int seen = 0;
+        while (true) {
+            for (int spins = 0; phase == seen && !shutdown; spins++) {
+                if (spins < SPINS) Thread.onSpinWait();
+                else LockSupport.park(this);
+            }
+            if (shutdown) return;
+            // the caller waits for this worker before it starts another phase, so none is skipped
+            seen = phase;
+            try {
+                task.accept(worker);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+            if (unfinished.decrementAndGet() == 0) LockSupport.unpark(coordinator);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Thread thread : threads) LockSupport.unpark(thread);
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// runs several mutator threads against one collector; each allocates at a configured rate, wires what it
+// allocates into the graph of a topology, rewires references among its recent objects and releases objects
+// when their sampled lifetime runs out. Every mutator draws from its own generator, split off the seed in
+// the order the mutators start, so with one mutator the same seed repeats the same run
+public class WorkloadDriver {
+    private static final int RECENT_OBJECTS = 256;
+
+    private final GarbageCollector collector;
+    private final int mutators;
+    private final boolean virtualThreads;
+    private final int allocationsPerMutator;
+    private final double allocationRate;
+    private final double addReferenceRatio;
+    private final double removeReferenceRatio;
+    private final LifetimeDistribution lifetime;
+    private final GraphTopology topology;
+    private final long seed;
+    private final AtomicLong objectCounter = new AtomicLong();
+
+    // allocationRate is per mutator and per second, 0 means as fast as possible; the ratios are the
+    // chance of one extra reference added or removed after each allocation
+    public WorkloadDriver(GarbageCollector collector, int mutators, boolean virtualThreads, int allocationsPerMutator,
+                          double allocationRate, double addReferenceRatio, double removeReferenceRatio,
+                          LifetimeDistribution lifetime) {
+        this(collector, mutators, virtualThreads, allocationsPerMutator, allocationRate, addReferenceRatio,
+                removeReferenceRatio, lifetime, GraphTopology.random(), new SplittableRandom().nextLong());
+    }
+
+    public WorkloadDriver(GarbageCollector collector, int mutators, boolean virtualThreads, int allocationsPerMutator,
+                          double allocationRate, double addReferenceRatio, double removeReferenceRatio,
+                          LifetimeDistribution lifetime, GraphTopology topology, long seed) {
+        if (mutators < 1) throw new IllegalArgumentException("mutators must be >= 1 (got " + mutators + ")");
+        if (allocationRate < 0) throw new IllegalArgumentException("allocationRate must be >= 0 (got " + allocationRate + ")");
+        this.collector = collector;
+        this.mutators = mutators;
+        this.virtualThreads = virtualThreads;
+        this.allocationsPerMutator = allocationsPerMutator;
+        this.allocationRate = allocationRate;
+        this.addReferenceRatio = addReferenceRatio;
+        this.removeReferenceRatio = removeReferenceRatio;
+        this.lifetime = lifetime;
+        this.topology = topology;
+        this.seed = seed;
+    }
+
+    private static final class Death implements Comparable<Death> {
+        final long due;
+        final GCObject object;
+
+        Death(long due, GCObject object) {
+            this.due = due;
+            this.object = object;
+        }
+
+        @Override
+        public int compareTo(Death other) {
+            return Long.compare(due, other.due);
+        }
+    }
+
+    public Result run() throws InterruptedException {
+        ThreadFactory factory = virtualThreads ? virtualThreadFactory() : Thread::new;
+        Safepoint safepoint = collector.safepoint();
+        long operationsBefore = safepoint.getOperationCount();
+        long pauseBefore = safepoint.getTotalPauseNanos();
+        long timeToSafepointBefore = safepoint.getTotalTimeToSafepointNanos();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        SplittableRandom seeds = new SplittableRandom(seed);
+        long start = System.nanoTime();
+        for (int i = 0; i < mutators; i++) {
+            SplittableRandom random = seeds.split();
+            Thread thread = factory.newThread(() -> {
+                try {
+                    mutate(random, start);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Mutator failed", failure.get());
+        }
+        return new Result((long) mutators * allocationsPerMutator, elapsed,
+                safepoint.getOperationCount() - operationsBefore,
+                safepoint.getTotalPauseNanos() - pauseBefore,
+                safepoint.getMaxPauseNanos(),
+                safepoint.getTotalTimeToSafepointNanos() - timeToSafepointBefore,
+                safepoint.getMaxTimeToSafepointNanos());
+    }
+
+    private void mutate(SplittableRandom random, long start) {
+        long interval = allocationRate > 0 ? (long) (1_000_000_000L / allocationRate) : 0;
+        GraphTopology.Graph graph = topology.newGraph(collector, random.split());
+        GCObject[] recent = new GCObject[RECENT_OBJECTS];
+        PriorityQueue<Death> deaths = new PriorityQueue<>();
+
+        for (int tick = 0; tick < allocationsPerMutator; tick++) {
+            if (interval > 0) {
+                long wait = start + tick * interval - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+            GCObject object = new GCObject("Obj" + objectCounter.incrementAndGet());
+            collector.allocateYoung(object);
+            graph.add(object);
+            recent[tick % RECENT_OBJECTS] = object;
+            int life = lifetime.sample(random);
+            if (life != LifetimeDistribution.IMMORTAL) deaths.add(new Death((long) tick + life, object));
+
+            int available = Math.min(tick + 1, RECENT_OBJECTS);
+            if (random.nextDouble() < addReferenceRatio) {
+                collector.addReference(recent[random.nextInt(available)], recent[random.nextInt(available)]);
+            }
+            if (random.nextDouble() < removeReferenceRatio) {
+                collector.removeReference(recent[random.nextInt(available)], recent[random.nextInt(available)]);
+            }
+            while (!deaths.isEmpty() && deaths.peek().due <= tick) {
+                collector.release(deaths.poll().object);
+            }
+        }
+    }
+
+    // virtual threads only exist from Java 21 on; older runtimes fall back to platform threads
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            GcLog.info("Virtual threads are not available on this runtime, using platform threads");
+            return Thread::new;
+        }
+    }
+
+    public static final class Result {
+        public final long allocations;
+        public final long elapsedNanos;
+        public final long safepoints;
+        public final long totalPauseNanos;
+        public final long maxPauseNanos;
+        public final long totalTimeToSafepointNanos;
+        public final long maxTimeToSafepointNanos;
+
+        Result(long allocations, long elapsedNanos, long safepoints, long totalPauseNanos, long maxPauseNanos,
+               long totalTimeToSafepointNanos, long maxTimeToSafepointNanos) {
+            this.allocations = allocations;
+            this.elapsedNanos = elapsedNanos;
+            this.safepoints = safepoints;
+            this.totalPauseNanos = totalPauseNanos;
+            this.maxPauseNanos = maxPauseNanos;
+            this.totalTimeToSafepointNanos = totalTimeToSafepointNanos;
+            this.maxTimeToSafepointNanos = maxTimeToSafepointNanos;
+        }
+
+        public double throughput() {
+            return allocations / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Allocations: %d in %.1f ms (%.0f allocations/s)%n" +
+                            "Safepoints: %d, total pause %.3f ms, max pause %.3f ms%n" +
+                            "Time to safepoint: avg %.3f ms, max %.3f ms%n" +
+                            "Mutator time outside pauses: %.1f%%",
+                    allocations, elapsedNanos / 1e6, throughput(),
+                    safepoints, totalPauseNanos / 1e6, maxPauseNanos / 1e6,
+                    safepoints == 0 ? 0.0 : totalTimeToSafepointNanos / 1e6 / safepoints, maxTimeToSafepointNanos / 1e6,
+                    100.0 * (elapsedNanos - totalPauseNanos) / elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// called by a heap storage after each reference it stores and before each one it removes, so a collector
+// can track the edges it cares about
+public interface WriteBarrier {
+    WriteBarrier NONE = (from, to) -> { };
+
+    void referenceStored(int from, int to);
+
+    // only snapshot-at-the-beginning marking needs to see removals
+    default void referenceRemoved(int from, int to) { }
+}
@@ -0,0 +1,77 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// allocateYoung throughput of the workload driver's mutators, every invocation in a fresh collector so that
+// none inherits the last one's heap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AllocationBenchmark {
+    @Param({"serial", "parallel", "copying", "region"})
+    public String collector;
+    // only used by the parallel collector; -p threads=1,2,4 compares thread counts
+    @Param({"2"})
+    public int threads;
+    // how the parallel collector runs its GC threads: forkjoin, gang or virtual
+    @Param({"forkjoin"})
+    public String workers;
+    @Param({"object"})
+    public String heap;
+    @Param({"1000"})
+    public int young;
+    @Param({"10000"})
+    public int old;
+    @Param({"4"})
+    public int roots;
+    @Param({"2"})
+    public int threshold;
+    @Param({"1"})
+    public int mutators;
+    // random, list, tree:<fanout>, cycles:<length>, powerlaw:<referrers> or cache:<capacity>:<hitRatio>
+    @Param({"random"})
+    public String topology;
+    // lazy only works with the serial and parallel collectors: -p collector=serial,parallel -p sweep=eager,lazy
+    @Param({"eager"})
+    public String sweep;
+
+    private GcFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        fixture = new GcFixture("alloc", "--collector=" + collector, "--threads=" + threads, "--workers=" + workers,
+                "--heap=" + heap, "--young=" + young, "--old=" + old, "--roots=" + roots, "--threshold=" + threshold,
+                "--mutators=" + mutators, "--topology=" + topology, "--sweep=" + sweep);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshCollector() {
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public Object allocate() throws Exception {
+        return fixture.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+}
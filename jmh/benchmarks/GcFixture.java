@@ -0,0 +1,32 @@
+package benchmarks;
+
+import java.util.concurrent.Callable;
+
+// a fixture from GcBenchmark.fixture, which lives in the default package and so is only reachable through
+// reflection; the fixture itself implements JDK interfaces only
+final class GcFixture {
+    private final Runnable prepare;
+    private final Callable<?> operation;
+    private final AutoCloseable release;
+
+    GcFixture(String bench, String... options) throws ReflectiveOperationException {
+        Object fixture = Class.forName("GcBenchmark").getMethod("fixture", String.class, String[].class)
+                .invoke(null, bench, options);
+        prepare = (Runnable) fixture;
+        operation = (Callable<?>) fixture;
+        release = (AutoCloseable) fixture;
+    }
+
+    // readies the next invocation, outside the measurement
+    void prepare() {
+        prepare.run();
+    }
+
+    Object run() throws Exception {
+        return operation.call();
+    }
+
+    void close() throws Exception {
+        release.close();
+    }
+}
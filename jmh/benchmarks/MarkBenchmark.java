@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// marking a synthetic graph kept in the old heap from one root, unmarked again before every invocation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarkBenchmark {
+    @Param({"serial", "parallel", "copying", "region"})
+    public String collector;
+    // only used by the parallel collector; -p threads=1,2,4 compares thread counts
+    @Param({"2"})
+    public int threads;
+    // how the parallel collector runs its GC threads: forkjoin, gang or virtual
+    @Param({"forkjoin"})
+    public String workers;
+    @Param({"object"})
+    public String heap;
+    @Param({"chain", "fanout", "dag", "cycles"})
+    public String shape;
+    @Param({"10000", "100000"})
+    public int nodes;
+
+    private GcFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        fixture = new GcFixture("mark", "--collector=" + collector, "--threads=" + threads, "--workers=" + workers,
+                "--heap=" + heap, "--shape=" + shape, "--nodes=" + nodes);
+    }
+
+    @Setup(Level.Invocation)
+    public void unmark() {
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public Object mark() throws Exception {
+        return fixture.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+}
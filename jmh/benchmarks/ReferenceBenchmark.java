@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a full collection over old soft, weak or phantom references, density of whose referents
+// are also strongly reachable. The collection clears the others, so every invocation builds a fresh heap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReferenceBenchmark {
+    // only the serial and parallel collectors process references
+    @Param({"serial", "parallel"})
+    public String collector;
+    // only used by the parallel collector; -p threads=1,2,4 compares thread counts
+    @Param({"2"})
+    public int threads;
+    // how the parallel collector runs its GC threads: forkjoin, gang or virtual
+    @Param({"forkjoin"})
+    public String workers;
+    @Param({"object"})
+    public String heap;
+    @Param({"soft", "weak", "phantom"})
+    public String type;
+    @Param({"10000", "100000"})
+    public int references;
+    @Param({"0.5"})
+    public double density;
+
+    private GcFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        fixture = new GcFixture("refs", "--collector=" + collector, "--threads=" + threads, "--workers=" + workers,
+                "--heap=" + heap, "--type=" + type, "--references=" + references, "--density=" + density);
+    }
+
+    @Setup(Level.Invocation)
+    public void buildHeap() {
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public Object fullGC() throws Exception {
+        return fixture.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// restoring a heap snapshot into a fresh collector, or the minorGC or fullGC of the restored heap. Only the
+// serial and parallel collectors take snapshots
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReplayBenchmark {
+    @Param({"serial", "parallel"})
+    public String collector;
+    // only used by the parallel collector; -p threads=1,2,4 compares thread counts
+    @Param({"2"})
+    public int threads;
+    // how the parallel collector runs its GC threads: forkjoin, gang or virtual
+    @Param({"forkjoin"})
+    public String workers;
+    @Param({"object"})
+    public String heap;
+    // a snapshot written by Main --snapshot-out; when empty, the pause benchmark's steady heap is captured
+    // with young, old, roots and threshold
+    @Param({""})
+    public String snapshot;
+    @Param({"1000"})
+    public int young;
+    @Param({"10000"})
+    public int old;
+    @Param({"4"})
+    public int roots;
+    @Param({"2"})
+    public int threshold;
+    @Param({"restore", "minor", "full"})
+    public String step;
+
+    private GcFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        fixture = new GcFixture("replay." + step, "--collector=" + collector, "--threads=" + threads, "--workers=" + workers,
+                "--heap=" + heap, "--snapshot=" + snapshot, "--young=" + young, "--old=" + old, "--roots=" + roots,
+                "--threshold=" + threshold);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshCollector() {
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public Object replay() throws Exception {
+        return fixture.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+}